@@ -1,4 +1,15 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 
 /**
@@ -6,7 +17,10 @@ import java.util.Arrays;
  */
 public class Autocomplete {
 
-   private final Term[] terms;
+   private final TermStore store;
+   private final WeightIndex weights;
+   private volatile TokenIndex tokens;
+   private volatile AutocompleteMetrics metrics;
    private int length;
 
 	/**
@@ -14,42 +28,386 @@ public class Autocomplete {
 	 * This method throws a NullPointerException if terms is null.
 	 */
    public Autocomplete(Term[] terms) {
+      this(terms, false);
+   }
+
+	/**
+	 * Initializes a data structure from the given array of terms. If
+	 * parallel is true, sorting the terms, filling the term store and
+	 * building the weight index all run on the common fork-join pool.
+	 * This method throws a NullPointerException if terms is null.
+	 */
+   public Autocomplete(Term[] terms, boolean parallel) {
+      this.store = new TermStore(terms, false, parallel);
+      this.weights = new WeightIndex(store.weights(), parallel);
+   }
+
+	/**
+	 * Initializes a data structure over an existing term store, without
+	 * copying it. If the store is normalized, prefixes match regardless of
+	 * case and accents. This method throws a NullPointerException if store
+	 * is null.
+	 */
+   public Autocomplete(TermStore store) {
    
-      if (terms == null) {
+      if (store == null) {
          throw new NullPointerException();
       }
       
       else {
-         this.terms = Arrays.copyOf(terms, terms.length);
-         Arrays.sort(this.terms);
+         this.store = store;
+         this.weights = new WeightIndex(store.weights());
       }
    }
 
+	/** 
+	 * Initializes a data structure from a store and an index that was
+	 * already built over its weights.
+	 */
+   Autocomplete(TermStore store, WeightIndex weights) {
+      this.store = store;
+      this.weights = weights;
+   }
+
+	/**
+	 * Opens an index previously written by save. The file is memory-mapped
+	 * read-only rather than read, so opening is fast regardless of size
+	 * and processes that open the same file share its pages. This method
+	 * throws an IOException if the file cannot be read or is not a
+	 * snapshot in a supported format.
+	 */
+   public static Autocomplete open(Path file) throws IOException {
+      if (file == null) {
+         throw new NullPointerException();
+      }
+      return AutocompleteSnapshot.open(file);
+   }
+
+	/**
+	 * Writes this index, already sorted and with its weight index built,
+	 * to the given file so that it can be reopened with open. An existing
+	 * file is replaced atomically; indexes already opened from it keep the
+	 * contents they were opened with. This method throws an IOException if
+	 * the file cannot be written.
+	 */
+   public void save(Path file) throws IOException {
+      if (file == null) {
+         throw new NullPointerException();
+      }
+      AutocompleteSnapshot.write(file, store, weights);
+   }
+
 	/** 
 	 * Returns all terms that start with the given prefix, in descending order of weight. 
-	 * This method throws a NullPointerException if prefix is null.
+	 * This method throws a NullPointerException if prefix is null, and an
+	 * IllegalArgumentException if prefix is empty.
 	 */
    public Term[] allMatches(String prefix) {
       
-      if (prefix == null) {
-         throw new NullPointerException();
+      AutocompleteMetrics m = metrics;
+      long start = (m == null) ? 0 : System.nanoTime();
+      int[] probes = (m == null) ? null : new int[1];
+      
+      Term[] match = allOf(rangeOf(prefix, probes));
+      
+      if (m != null) {
+         m.record(prefix, System.nanoTime() - start, match.length, probes[0], match.length);
+      }
+      return match;
+      
+   }
+
+	/** 
+	 * Returns the k heaviest terms that start with the given prefix, in
+	 * descending order of weight. The cost depends on k, not on how many
+	 * terms match. This method throws a NullPointerException if prefix is
+	 * null, and an IllegalArgumentException if prefix is empty or k is
+	 * negative.
+	 */
+   public Term[] allMatches(String prefix, int k) {
+   
+      if (k < 0) {
+         throw new IllegalArgumentException();
+      }
+      
+      AutocompleteMetrics m = metrics;
+      long start = (m == null) ? 0 : System.nanoTime();
+      int[] probes = (m == null) ? null : new int[1];
+      
+      int[] range = rangeOf(prefix, probes);
+      Term[] match = topOf(range, k);
+      
+      if (m != null) {
+         int rangeSize = (range[0] == -1) ? 0 : range[1] - range[0] + 1;
+         m.record(prefix, System.nanoTime() - start, rangeSize, probes[0], match.length);
+      }
+      return match;
+   }
+
+	/**
+	 * Returns, for each prefix in the list, the k heaviest terms that start
+	 * with it, in descending order of weight, as allMatches(prefix, k)
+	 * would. The results are in the same order as the prefixes. The
+	 * prefixes are searched in sorted order so that each search reuses the
+	 * bounds found for the ones before it: an extension of a prefix is
+	 * only searched for within that prefix's range, and a later prefix
+	 * only after the ranges of earlier ones. This method throws a
+	 * NullPointerException if prefixes or any prefix is null, and an
+	 * IllegalArgumentException if any prefix is empty or k is negative.
+	 */
+   public Term[][] allMatches(List<String> prefixes, int k) {
+      return allMatches(prefixes, k, null);
+   }
+
+	/**
+	 * Returns the same results as allMatches(prefixes, k), but with the
+	 * top k of the prefixes collected as parallel tasks on the given
+	 * fork-join pool once the ranges are found, or on the calling thread
+	 * if pool is null.
+	 */
+   public Term[][] allMatches(List<String> prefixes, int k, ForkJoinPool pool) {
+   
+      if (k < 0) {
+         throw new IllegalArgumentException();
+      }
+      
+      int[][] ranges = rangesOf(prefixes);
+      Term[][] matches = new Term[ranges.length][];
+      if (pool == null) {
+         for (int i = 0; i < ranges.length; i++) {
+            matches[i] = topOf(ranges[i], k);
+         }
       }
       
       else {
-         Term prefixTerm = new Term(prefix, 0);
-         int firstIndex = BinarySearch.firstIndexOf(terms, prefixTerm, Term.byPrefixOrder(prefix.length()));
-         int lastIndex = BinarySearch.lastIndexOf(terms, prefixTerm, Term.byPrefixOrder(prefix.length()));
-         
-         if (firstIndex == -1 || lastIndex == -1) {
-            return new Term[0];
+         pool.submit(() -> IntStream.range(0, ranges.length).parallel()
+            .forEach(i -> matches[i] = topOf(ranges[i], k))).join();
+      }
+      return matches;
+   }
+
+	/** Returns every term in the range, in descending order of weight. */
+   Term[] allOf(int[] range) {
+      if (range[0] == -1) {
+         return new Term[0];
+      }
+      Term[] match = new Term[range[1] - range[0] + 1];
+      for (int i = 0; i < match.length; i++) {
+         match[i] = store.term(range[0] + i);
+      }
+      Term.sortByDescendingWeight(match);
+      return match;
+   }
+
+	/** Returns the terms at the k heaviest positions of the range. */
+   Term[] topOf(int[] range, int k) {
+      if (range[0] == -1) {
+         return new Term[0];
+      }
+      int[] top = weights.top(range[0], range[1], k);
+      Term[] match = new Term[top.length];
+      for (int i = 0; i < top.length; i++) {
+         match[i] = store.term(top[i]);
+      }
+      return match;
+   }
+
+	/**
+	 * Returns the range of every prefix, in list order, searching them in
+	 * sorted order. A stack holds the earlier prefixes that the current
+	 * one extends, innermost on top, so the innermost range bounds the
+	 * search from both sides; every popped range, having sorted before the
+	 * current prefix without being a prefix of it, bounds it from below.
+	 */
+   private int[][] rangesOf(List<String> prefixes) {
+      String[] keys = new String[prefixes.size()];
+      Integer[] order = new Integer[keys.length];
+      for (int i = 0; i < keys.length; i++) {
+         String prefix = prefixes.get(i);
+         if (prefix == null) {
+            throw new NullPointerException();
+         }
+         if (prefix.length() == 0) {
+            throw new IllegalArgumentException();
+         }
+         keys[i] = store.keyOf(prefix);
+         order[i] = i;
+      }
+      Arrays.sort(order, (a, b) -> keys[a].compareTo(keys[b]));
+   
+      int[][] ranges = new int[keys.length][];
+      Deque<Integer> enclosing = new ArrayDeque<Integer>();
+      int lo = 0;
+      for (int i : order) {
+         while (!enclosing.isEmpty() && !keys[i].startsWith(keys[enclosing.peek()])) {
+            int[] before = ranges[enclosing.pop()];
+            if (before[1] != -1) {
+               lo = Math.max(lo, before[1] + 1);
+            }
          }
          
-         Term[] match = Arrays.copyOfRange(terms, firstIndex, lastIndex + 1);
-         Arrays.sort(match, Term.byDescendingWeightOrder());
-         return match;
+         int hi = store.size() - 1;
+         if (!enclosing.isEmpty()) {
+            int[] outer = ranges[enclosing.peek()];
+            lo = Math.max(lo, outer[0]);
+            hi = outer[1];
+         }
+         ranges[i] = (hi == -1) ? new int[] {-1, -1} : store.keyRange(keys[i], lo, hi, null);
+         enclosing.push(i);
+      }
+      return ranges;
+   }
+
+	/**
+	 * Records every allMatches call from now on into the given metrics, or
+	 * stops recording if it is null.
+	 */
+   public void setMetrics(AutocompleteMetrics metrics) {
+      this.metrics = metrics;
+   }
+
+	/** Returns the metrics calls are recorded into, or null if they are not. */
+   public AutocompleteMetrics metrics() {
+      return metrics;
+   }
+
+	/**
+	 * Returns all terms with a word that starts with the given prefix, in
+	 * descending order of weight. Words are separated by whitespace, so
+	 * "york" matches "new york". This method throws a NullPointerException
+	 * if prefix is null, and an IllegalArgumentException if prefix is empty.
+	 */
+   public Term[] infixMatches(String prefix) {
+      return infixMatches(prefix, Integer.MAX_VALUE);
+   }
+
+	/**
+	 * Returns the k heaviest terms with a word that starts with the given
+	 * prefix, in descending order of weight. The terms matching at the
+	 * start of the query and those matching at a later word each come out
+	 * of a weight index heaviest first; a heap merges these streams and
+	 * drops terms already taken, stopping after k. The word index is built
+	 * on first use. This method throws a NullPointerException if prefix is
+	 * null, and an IllegalArgumentException if prefix is empty or k is
+	 * negative.
+	 */
+   public Term[] infixMatches(String prefix, int k) {
+   
+      if (k < 0) {
+         throw new IllegalArgumentException();
+      }
+      
+      int[] range = rangeOf(prefix);
+      TokenIndex words = tokenIndex();
+      int[] wordRange = words.equalRange(store.isNormalized() ? TermStore.normalize(prefix) : prefix);
+      
+      PriorityQueue<Stream> streams = new PriorityQueue<Stream>();
+      if (range[0] != -1) {
+         new Stream(weights.descending(range[0], range[1]), null).advanceInto(streams);
+      }
+      if (wordRange[0] != -1) {
+         new Stream(words.descending(wordRange[0], wordRange[1]), words).advanceInto(streams);
       }
       
+      Set<Integer> taken = new HashSet<Integer>();
+      Term[] match = new Term[16];
+      int count = 0;
+      while (count < k && !streams.isEmpty()) {
+         Stream next = streams.poll();
+         if (taken.add(next.position)) {
+            if (count == match.length) {
+               match = Arrays.copyOf(match, 2 * count);
+            }
+            match[count++] = store.term(next.position);
+         }
+         next.advanceInto(streams);
+      }
+      return Arrays.copyOf(match, count);
    }
 
-}
+	/** Returns the word index, building it on first use. */
+   private TokenIndex tokenIndex() {
+      TokenIndex index = tokens;
+      if (index == null) {
+         synchronized (this) {
+            index = tokens;
+            if (index == null) {
+               index = TokenIndex.build(store);
+               tokens = index;
+            }
+         }
+      }
+      return index;
+   }
 
+	/** 
+	 * Returns the first and last store positions of the terms that start
+	 * with the given prefix, or {-1, -1} if there are none.
+	 */
+   int[] rangeOf(String prefix) {
+      return rangeOf(prefix, null);
+   }
+
+	/** 
+	 * Returns the same range as rangeOf(prefix), adding the number of
+	 * binary search probes to probes[0] if probes is not null.
+	 */
+   private int[] rangeOf(String prefix, int[] probes) {
+   
+      if (prefix == null) {
+         throw new NullPointerException();
+      }
+      
+      if (prefix.length() == 0) {
+         throw new IllegalArgumentException();
+      }
+      
+      return store.equalRange(prefix, probes);
+   }
+
+	/** Returns the term store behind this index. */
+   TermStore store() {
+      return store;
+   }
+
+	/** Returns the weight index over the term store. */
+   WeightIndex weightIndex() {
+      return weights;
+   }
+
+	/**
+	 * One lazily read source of matches, heaviest first, positioned on its
+	 * next term. Streams order by that term's weight, heaviest first, then
+	 * by store position.
+	 */
+   private class Stream implements Comparable<Stream> {
+      private final PrimitiveIterator.OfInt positions;
+      private final TokenIndex words;
+      private int position;
+      private long weight;
+   
+      Stream(PrimitiveIterator.OfInt positions, TokenIndex words) {
+         this.positions = positions;
+         this.words = words;
+      }
+   
+      /** Moves to the next term and rejoins the heap, unless exhausted. */
+      void advanceInto(PriorityQueue<Stream> streams) {
+         if (positions.hasNext()) {
+            int next = positions.nextInt();
+            position = (words == null) ? next : words.term(next);
+            weight = store.weight(position);
+            streams.add(this);
+         }
+      }
+   
+      public int compareTo(Stream other) {
+         int cmp = Long.compare(other.weight, weight);
+         if (cmp == 0) {
+            cmp = Integer.compare(position, other.position);
+         }
+         return cmp;
+      }
+   }
+
+}
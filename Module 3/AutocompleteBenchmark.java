@@ -0,0 +1,350 @@
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * AutocompleteBenchmark.java
+ * Measures the heap allocated per prefix search, comparing the in-place
+ * prefix comparator in Term against the old substring-based one, and the
+ * time to build an index sequentially and in parallel on 1, 2, 4, ...
+ * cores, and the time to rank match sets by weight with the comparator
+ * sort and with the radix sort in Term. The suite mode runs the Term
+ * comparators, BinarySearch and Autocomplete.allMatches across dictionary
+ * sizes up to the number of terms and prefix lengths 1 to 4, reporting
+ * throughput, latency percentiles and bytes allocated per operation.
+ * Run with: java AutocompleteBenchmark [alloc|build|rank|suite] [number of terms]
+ */
+public class AutocompleteBenchmark {
+
+   // number of measured calls per configuration
+   private static final int NUM_RUNS = 100_000;
+
+   // number of unmeasured calls made first so the JIT settles down
+   private static final int WARMUP_RUNS = 20_000;
+
+   // number of timed index builds per core count
+   private static final int BUILD_RUNS = 5;
+
+   // match set sizes ranked per row, and the sorts timed per size
+   private static final int[] RANK_SIZES = {100, 1_000, 10_000, 100_000, 1_000_000};
+   private static final int RANK_RUNS = 50;
+
+   // dictionary sizes and prefix lengths covered by the suite
+   private static final int[] SUITE_SIZES = {10_000, 100_000, 1_000_000};
+   private static final int MAX_PREFIX_LENGTH = 4;
+
+   // time spent warming up and then measuring each suite row
+   private static final long SUITE_WARMUP_NANOS = 300_000_000L;
+   private static final long SUITE_MEASURE_NANOS = 1_000_000_000L;
+
+   // 1.0E9 ns per second
+   private static final double SECONDS = 1_000_000_000d;
+
+   /** Drives execution. */
+   public static void main(String[] args) throws Exception {
+      String mode = (args.length > 0) ? args[0] : "alloc";
+      int n = (args.length > 1) ? Integer.parseInt(args[1]) : 1_000_000;
+      if (mode.equals("build")) {
+         build(n);
+      }
+      else if (mode.equals("rank")) {
+         rank(n);
+      }
+      else if (mode.equals("suite")) {
+         suite(n);
+      }
+      else {
+         allocation(n);
+      }
+   }
+
+   /** Reports the bytes allocated per search and per allMatches call. */
+   private static void allocation(int n) {
+      Term[] terms = randomTerms(n, new Random(2210));
+      Autocomplete autocomplete = new Autocomplete(terms);
+      Arrays.sort(terms);
+      String[] prefixes = randomPrefixes(terms, 1024, new Random(42));
+
+      System.out.printf("%d terms, %d calls per row%n", n, NUM_RUNS);
+      System.out.printf("%-28s%16s%n", "operation", "bytes/call");
+      report("equalRange, substring order", measureSearch(terms, prefixes, true));
+      report("equalRange, in-place order", measureSearch(terms, prefixes, false));
+      report("allMatches(prefix, 10)", measureTopK(autocomplete, prefixes, 10));
+   }
+
+   /** Reports the average time to build an index of n terms per core count. */
+   private static void build(int n) throws Exception {
+      Term[] terms = randomTerms(n, new Random(2210));
+      int cores = Runtime.getRuntime().availableProcessors();
+      System.out.printf("%d terms, %d builds per row%n", n, BUILD_RUNS);
+      System.out.printf("%-12s%16s%n", "cores", "seconds/build");
+      System.out.printf("%-12s%16.3f%n", "sequential", timeBuild(terms, false));
+      for (int p = 1; p <= cores; p = (p == cores || 2 * p <= cores) ? 2 * p : cores) {
+         ForkJoinPool pool = new ForkJoinPool(p);
+         double seconds = pool.submit(() -> timeBuild(terms, true)).get();
+         pool.shutdown();
+         System.out.printf("%-12d%16.3f%n", p, seconds);
+      }
+   }
+
+   /**
+    * Returns the average seconds per build, after one untimed build.
+    * Parallel builds run on whichever fork-join pool calls this method.
+    */
+   private static double timeBuild(Term[] terms, boolean parallel) {
+      int sink = new Autocomplete(terms, parallel).allMatches("a", 1).length;
+      long elapsed = 0;
+      for (int i = 0; i < BUILD_RUNS; i++) {
+         long start = System.nanoTime();
+         sink += new Autocomplete(terms, parallel).allMatches("a", 1).length;
+         elapsed += System.nanoTime() - start;
+      }
+      consume(sink);
+      return elapsed / SECONDS / BUILD_RUNS;
+   }
+
+   /**
+    * Reports the average time to sort match sets of several sizes, drawn
+    * from n terms, by descending weight.
+    */
+   private static void rank(int n) {
+      Term[] terms = randomTerms(n, new Random(2210));
+      System.out.printf("%d terms, %d sorts per row%n", n, RANK_RUNS);
+      System.out.printf("%-12s%16s%16s%n", "matches", "comparator ms", "radix ms");
+      for (int size : RANK_SIZES) {
+         if (size > n) {
+            break;
+         }
+         Term[] matches = Arrays.copyOf(terms, size);
+         System.out.printf("%-12d%16.3f%16.3f%n", size,
+            timeRank(matches, false), timeRank(matches, true));
+      }
+   }
+
+   /** Returns the average milliseconds to sort a copy of the matches. */
+   private static double timeRank(Term[] matches, boolean radix) {
+      long elapsed = 0;
+      int sink = 0;
+      for (int i = 0; i < WARMUP_RUNS / 1_000 + RANK_RUNS; i++) {
+         Term[] copy = matches.clone();
+         long start = System.nanoTime();
+         if (radix) {
+            Term.sortByDescendingWeight(copy);
+         }
+         else {
+            Arrays.sort(copy, Term.byDescendingWeightOrder());
+         }
+         if (i >= WARMUP_RUNS / 1_000) {
+            elapsed += System.nanoTime() - start;
+         }
+         sink += (int) copy[0].weight;
+      }
+      consume(sink);
+      return elapsed / 1_000_000d / RANK_RUNS;
+   }
+
+   /**
+    * Runs every suite row for each dictionary size up to n. Cheap
+    * operations are timed in batches, so their percentiles are of batch
+    * averages; the slower searches are timed one call at a time.
+    */
+   private static void suite(int n) {
+      System.out.printf("%-32s%10s%6s%14s%10s%10s%10s%10s%n",
+         "operation", "terms", "len", "ops/s", "p50 ns", "p99 ns", "p999 ns", "B/op");
+      for (int size : SUITE_SIZES) {
+         if (size > n) {
+            break;
+         }
+         Term[] terms = randomTerms(size, new Random(2210));
+         Autocomplete autocomplete = new Autocomplete(terms);
+         Term[] sorted = terms.clone();
+         Arrays.sort(sorted);
+      
+         Comparator<Term> byWeight = Term.byDescendingWeightOrder();
+         suiteRow("Term.byDescendingWeightOrder", size, 0, 1_000,
+            i -> byWeight.compare(sorted[Math.floorMod(i, size)], sorted[Math.floorMod(i * 31 + 7, size)]));
+         for (int length = 1; length <= MAX_PREFIX_LENGTH; length++) {
+            Comparator<Term> byPrefix = Term.byPrefixOrder(length);
+            suiteRow("Term.byPrefixOrder", size, length, 1_000,
+               i -> byPrefix.compare(sorted[Math.floorMod(i, size)], sorted[Math.floorMod(i * 31 + 7, size)]));
+         }
+      
+         for (int length = 1; length <= MAX_PREFIX_LENGTH; length++) {
+            String[] prefixes = prefixesOfLength(sorted, 1024, length, new Random(42));
+            Term[] keys = new Term[prefixes.length];
+            for (int i = 0; i < keys.length; i++) {
+               keys[i] = new Term(prefixes[i], 0);
+            }
+            Comparator<Term> byPrefix = Term.byPrefixOrder(length);
+            suiteRow("BinarySearch.firstIndexOf", size, length, 100,
+               i -> BinarySearch.firstIndexOf(sorted, keys[i % keys.length], byPrefix));
+            suiteRow("BinarySearch.lastIndexOf", size, length, 100,
+               i -> BinarySearch.lastIndexOf(sorted, keys[i % keys.length], byPrefix));
+            suiteRow("Autocomplete.allMatches", size, length, 1,
+               i -> autocomplete.allMatches(prefixes[i % prefixes.length]).length);
+            suiteRow("Autocomplete.allMatches(k=10)", size, length, 1,
+               i -> autocomplete.allMatches(prefixes[i % prefixes.length], 10).length);
+         }
+      }
+   }
+
+   /** One benchmarked call; i selects the input and the result is consumed. */
+   private interface Operation {
+      int run(int i);
+   }
+
+   /**
+    * Warms the operation up, then times it in batches of the given size
+    * for a fixed time, and prints one row of the suite table.
+    */
+   private static void suiteRow(String name, int size, int length, int batch, Operation op) {
+      int sink = 0;
+      int i = 0;
+      long end = System.nanoTime() + SUITE_WARMUP_NANOS;
+      while (System.nanoTime() < end) {
+         for (int j = 0; j < batch; j++) {
+            sink += op.run(i++);
+         }
+      }
+   
+      long[] samples = new long[1 << 16];
+      int count = 0;
+      long ops = 0;
+      long before = allocatedBytes();
+      long start = System.nanoTime();
+      end = start + SUITE_MEASURE_NANOS;
+      long now = start;
+      while (now < end) {
+         for (int j = 0; j < batch; j++) {
+            sink += op.run(i++);
+         }
+         long last = now;
+         now = System.nanoTime();
+         if (count == samples.length) {
+            samples = Arrays.copyOf(samples, 2 * count);
+         }
+         samples[count++] = (now - last) / batch;
+         ops += batch;
+      }
+      double bytes = (double) (allocatedBytes() - before) / ops;
+      consume(sink);
+   
+      Arrays.sort(samples, 0, count);
+      System.out.printf("%-32s%10d%6s%14.0f%10d%10d%10d%10.1f%n", name, size,
+         (length == 0) ? "-" : String.valueOf(length), ops * SECONDS / (now - start),
+         percentile(samples, count, 0.50), percentile(samples, count, 0.99),
+         percentile(samples, count, 0.999), bytes);
+   }
+
+   /** Returns the given quantile of the first count sorted samples. */
+   private static long percentile(long[] sorted, int count, double quantile) {
+      return sorted[Math.min(count - 1, (int) (quantile * count))];
+   }
+
+   private static void report(String name, double bytesPerCall) {
+      System.out.printf("%-28s%16.1f%n", name, bytesPerCall);
+   }
+
+   /** Returns the bytes allocated per binary search over the terms. */
+   private static double measureSearch(Term[] terms, String[] prefixes, boolean substring) {
+      Term[] keys = new Term[prefixes.length];
+      for (int i = 0; i < keys.length; i++) {
+         keys[i] = new Term(prefixes[i], 0);
+      }
+      int sink = 0;
+      long before = 0;
+      for (int i = 0; i < WARMUP_RUNS + NUM_RUNS; i++) {
+         if (i == WARMUP_RUNS) {
+            before = allocatedBytes();
+         }
+         Term key = keys[i % keys.length];
+         int length = key.query.length();
+         Comparator<Term> order = substring ? substringOrder(length) : Term.byPrefixOrder(length);
+         sink += BinarySearch.equalRange(terms, key, order)[0];
+      }
+      double bytes = (double) (allocatedBytes() - before) / NUM_RUNS;
+      consume(sink);
+      return bytes;
+   }
+
+   /** Returns the bytes allocated per bounded allMatches call. */
+   private static double measureTopK(Autocomplete autocomplete, String[] prefixes, int k) {
+      int sink = 0;
+      long before = 0;
+      for (int i = 0; i < WARMUP_RUNS + NUM_RUNS; i++) {
+         if (i == WARMUP_RUNS) {
+            before = allocatedBytes();
+         }
+         sink += autocomplete.allMatches(prefixes[i % prefixes.length], k).length;
+      }
+      double bytes = (double) (allocatedBytes() - before) / NUM_RUNS;
+      consume(sink);
+      return bytes;
+   }
+
+   /** The prefix comparator as it was before it compared in place. */
+   private static Comparator<Term> substringOrder(int length) {
+      return
+         new Comparator<Term>() {
+            public int compare(Term firstTerm, Term secondTerm) {
+               String a = firstTerm.query;
+               String b = secondTerm.query;
+               a = a.substring(0, Math.min(length, a.length()));
+               b = b.substring(0, Math.min(length, b.length()));
+               return a.compareTo(b);
+            }
+         };
+   }
+
+   /** Returns random lowercase terms with lengths between 1 and 12. */
+   static Term[] randomTerms(int n, Random rng) {
+      Term[] terms = new Term[n];
+      char[] buf = new char[12];
+      for (int i = 0; i < n; i++) {
+         int length = 1 + rng.nextInt(buf.length);
+         for (int j = 0; j < length; j++) {
+            buf[j] = (char) ('a' + rng.nextInt(26));
+         }
+         terms[i] = new Term(new String(buf, 0, length), rng.nextInt(1_000_000_000));
+      }
+      return terms;
+   }
+
+   /** Returns prefixes of 1 to 4 characters taken from random terms. */
+   static String[] randomPrefixes(Term[] terms, int count, Random rng) {
+      String[] prefixes = new String[count];
+      for (int i = 0; i < count; i++) {
+         String query = terms[rng.nextInt(terms.length)].query;
+         prefixes[i] = query.substring(0, Math.min(query.length(), 1 + rng.nextInt(4)));
+      }
+      return prefixes;
+   }
+
+   /** Returns prefixes of exactly the given length taken from random terms. */
+   private static String[] prefixesOfLength(Term[] terms, int count, int length, Random rng) {
+      String[] prefixes = new String[count];
+      for (int i = 0; i < count; ) {
+         String query = terms[rng.nextInt(terms.length)].query;
+         if (query.length() >= length) {
+            prefixes[i++] = query.substring(0, length);
+         }
+      }
+      return prefixes;
+   }
+
+   /** Returns the bytes allocated so far by the current thread. */
+   private static long allocatedBytes() {
+      return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+         .getThreadAllocatedBytes(Thread.currentThread().getId());
+   }
+
+   /** Keeps the JIT from discarding a benchmark loop as dead code. */
+   private static void consume(int sink) {
+      if (sink == 42) {
+         System.out.print("");
+      }
+   }
+
+}
@@ -0,0 +1,268 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per-call measurements of Autocomplete.allMatches, recorded only when a
+ * metrics object is attached with Autocomplete.setMetrics. Without one,
+ * a query pays a single null check.
+ *
+ * Each call records its latency, the size of the range of terms matching
+ * its prefix, the number of terms the binary search compared with the
+ * prefix, and the number of results returned, each into a Histogram.
+ * Calls slower than a threshold are also kept, with their prefix and
+ * range size, in a short log of the most recent slow queries, so that
+ * slow calls can be traced to broad prefixes.
+ *
+ * All methods are safe to call from several threads at once.
+ *
+ */
+public class AutocompleteMetrics {
+
+   // number of slow queries remembered
+   private static final int SLOW_LOG_SIZE = 64;
+
+   private final long slowNanos;
+   private final Histogram latency = new Histogram();
+   private final Histogram rangeSizes = new Histogram();
+   private final Histogram probes = new Histogram();
+   private final Histogram resultSizes = new Histogram();
+   private final ArrayDeque<SlowQuery> slowLog = new ArrayDeque<SlowQuery>();
+
+   /** Initializes empty metrics that log calls taking at least one millisecond. */
+   public AutocompleteMetrics() {
+      this(1_000_000L);
+   }
+
+   /**
+    * Initializes empty metrics that log calls taking at least slowNanos
+    * nanoseconds. This method throws an IllegalArgumentException if
+    * slowNanos is negative.
+    */
+   public AutocompleteMetrics(long slowNanos) {
+      if (slowNanos < 0) {
+         throw new IllegalArgumentException();
+      }
+      this.slowNanos = slowNanos;
+   }
+
+   /** Records one call. */
+   void record(String prefix, long nanos, int rangeSize, int probeCount, int resultSize) {
+      latency.record(nanos);
+      rangeSizes.record(rangeSize);
+      probes.record(probeCount);
+      resultSizes.record(resultSize);
+      if (nanos >= slowNanos) {
+         synchronized (slowLog) {
+            if (slowLog.size() == SLOW_LOG_SIZE) {
+               slowLog.removeFirst();
+            }
+            slowLog.addLast(new SlowQuery(prefix, nanos, rangeSize, resultSize));
+         }
+      }
+   }
+
+   /** Returns the distribution of call latencies, in nanoseconds. */
+   public Histogram latency() {
+      return latency;
+   }
+
+   /** Returns the distribution of the number of terms matching the prefix. */
+   public Histogram rangeSizes() {
+      return rangeSizes;
+   }
+
+   /** Returns the distribution of binary search probes per call. */
+   public Histogram probes() {
+      return probes;
+   }
+
+   /** Returns the distribution of the number of results returned. */
+   public Histogram resultSizes() {
+      return resultSizes;
+   }
+
+   /** Returns the most recent slow queries, oldest first. */
+   public List<SlowQuery> slowQueries() {
+      synchronized (slowLog) {
+         return new ArrayList<SlowQuery>(slowLog);
+      }
+   }
+
+   /** Clears every histogram and the slow query log. */
+   public void reset() {
+      latency.reset();
+      rangeSizes.reset();
+      probes.reset();
+      resultSizes.reset();
+      synchronized (slowLog) {
+         slowLog.clear();
+      }
+   }
+
+   /**
+    * Returns a one-line summary of the count and the 50th, 99th and 99.9th
+    * percentiles and maximum of every histogram.
+    */
+   @Override
+   public String toString() {
+      return "calls=" + latency.count()
+         + " latencyNanos=" + latency
+         + " rangeSize=" + rangeSizes
+         + " probes=" + probes
+         + " resultSize=" + resultSizes;
+   }
+
+   /**
+    * Histogram of non-negative longs in log-linear buckets, in the style of
+    * HdrHistogram: values are grouped by their highest set bit, and each
+    * such power-of-two range is split into 2^SUB_BITS equal buckets. So
+    * a reported value is always within about 3% of the true one, and the
+    * whole range of long fits in a fixed array of counters that recording
+    * updates without locking.
+    */
+   public static class Histogram {
+
+      private static final int SUB_BITS = 5;
+      private static final int SUB_COUNT = 1 << SUB_BITS;
+
+      // number of buckets, enough for every non-negative long
+      static final int BUCKETS = (Long.SIZE - SUB_BITS + 1) * SUB_COUNT;
+
+      private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+      private final AtomicLong count = new AtomicLong();
+      private final AtomicLong max = new AtomicLong();
+
+      /**
+       * Records one value. This method throws an IllegalArgumentException
+       * if value is negative.
+       */
+      public void record(long value) {
+         if (value < 0) {
+            throw new IllegalArgumentException();
+         }
+         counts.incrementAndGet(bucketOf(value));
+         count.incrementAndGet();
+         long old = max.get();
+         while (value > old && !max.compareAndSet(old, value)) {
+            old = max.get();
+         }
+      }
+
+      /** Returns the number of values recorded. */
+      public long count() {
+         return count.get();
+      }
+
+      /** Returns the largest value recorded, or 0 if there are none. */
+      public long max() {
+         return max.get();
+      }
+
+      /**
+       * Returns the highest value of the bucket holding the given quantile
+       * of the recorded values, or 0 if there are none. This method throws
+       * an IllegalArgumentException if quantile is not between 0 and 1.
+       */
+      public long valueAt(double quantile) {
+         if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException();
+         }
+         long total = count.get();
+         if (total == 0) {
+            return 0;
+         }
+         long rank = Math.max(1, (long) Math.ceil(quantile * total));
+         long seen = 0;
+         for (int b = 0; b < counts.length(); b++) {
+            seen += counts.get(b);
+            if (seen >= rank) {
+               return Math.min(highestValueOf(b), max.get());
+            }
+         }
+         return max.get();
+      }
+
+      /** Clears every recorded value. */
+      public void reset() {
+         for (int b = 0; b < counts.length(); b++) {
+            counts.set(b, 0);
+         }
+         count.set(0);
+         max.set(0);
+      }
+
+      @Override
+      public String toString() {
+         return "{n=" + count() + " p50=" + valueAt(0.50) + " p99=" + valueAt(0.99)
+            + " p999=" + valueAt(0.999) + " max=" + max() + "}";
+      }
+
+      /**
+       * Values below SUB_COUNT get a bucket each; above that, the magnitude
+       * picks a group of SUB_COUNT buckets and the next SUB_BITS bits below
+       * the highest one pick the bucket within it.
+       */
+      static int bucketOf(long value) {
+         if (value < SUB_COUNT) {
+            return (int) value;
+         }
+         int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BITS;
+         return (shift + 1) * SUB_COUNT + (int) ((value >>> shift) & (SUB_COUNT - 1));
+      }
+
+      /** Returns the highest value that falls in the given bucket. */
+      static long highestValueOf(int bucket) {
+         if (bucket < SUB_COUNT) {
+            return bucket;
+         }
+         int shift = bucket / SUB_COUNT - 1;
+         long low = ((long) (SUB_COUNT + bucket % SUB_COUNT)) << shift;
+         return low + ((1L << shift) - 1);
+      }
+   }
+
+   /** A call that took at least the slow threshold. */
+   public static class SlowQuery {
+      final String prefix;
+      final long nanos;
+      final int rangeSize;
+      final int resultSize;
+
+      SlowQuery(String prefix, long nanos, int rangeSize, int resultSize) {
+         this.prefix = prefix;
+         this.nanos = nanos;
+         this.rangeSize = rangeSize;
+         this.resultSize = resultSize;
+      }
+
+      /** Returns the prefix that was searched for. */
+      public String prefix() {
+         return prefix;
+      }
+
+      /** Returns how long the call took, in nanoseconds. */
+      public long nanos() {
+         return nanos;
+      }
+
+      /** Returns the number of terms that matched the prefix. */
+      public int rangeSize() {
+         return rangeSize;
+      }
+
+      /** Returns the number of results returned. */
+      public int resultSize() {
+         return resultSize;
+      }
+
+      /** Returns prefix, latency in nanoseconds and range size, tab-separated. */
+      @Override
+      public String toString() {
+         return prefix + "\t" + nanos + "\t" + rangeSize;
+      }
+   }
+
+}
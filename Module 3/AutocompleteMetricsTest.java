@@ -0,0 +1,180 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for AutocompleteMetrics: histogram buckets and percentiles, and
+ * the measurements Autocomplete records into an attached metrics object.
+ */
+public class AutocompleteMetricsTest {
+
+   private static final String[] PREFIXES = {"a", "b", "ab", "ba", "abc", "cab", "dddd", "e"};
+
+   /** Returns small values, values around every power of two, and random ones, ascending. */
+   private static List<Long> sampleValues() {
+      List<Long> values = new ArrayList<Long>();
+      for (long v = 0; v < 5000; v++) {
+         values.add(v);
+      }
+      for (int bit = 13; bit < 63; bit++) {
+         values.add((1L << bit) - 1);
+         values.add(1L << bit);
+         values.add((1L << bit) + 1);
+      }
+      Random rng = new Random(2210);
+      for (int i = 0; i < 5000; i++) {
+         values.add(rng.nextLong() >>> (1 + rng.nextInt(63)));
+      }
+      values.add(Long.MAX_VALUE);
+      values.sort(null);
+      return values;
+   }
+
+   @Test public void everyValueFallsInOneTightBucket() {
+      int last = 0;
+      for (long value : sampleValues()) {
+         int bucket = AutocompleteMetrics.Histogram.bucketOf(value);
+         Assert.assertTrue(value + "", bucket >= last);
+         Assert.assertTrue(value + "", bucket < AutocompleteMetrics.Histogram.BUCKETS);
+         long highest = AutocompleteMetrics.Histogram.highestValueOf(bucket);
+         Assert.assertTrue(value + "", highest >= value);
+         Assert.assertTrue(value + "", bucket == 0
+            || AutocompleteMetrics.Histogram.highestValueOf(bucket - 1) < value);
+         Assert.assertTrue(value + "", highest - value <= value / 32);
+         last = bucket;
+      }
+      Assert.assertEquals(Long.MAX_VALUE, AutocompleteMetrics.Histogram.highestValueOf(
+         AutocompleteMetrics.Histogram.bucketOf(Long.MAX_VALUE)));
+   }
+
+   @Test public void valueAtStaysWithinRecordedBounds() {
+      AutocompleteMetrics.Histogram histogram = new AutocompleteMetrics.Histogram();
+      Assert.assertEquals(0, histogram.valueAt(0.5));
+      for (long v = 1; v <= 100000; v++) {
+         histogram.record(v);
+      }
+      Assert.assertEquals(100000, histogram.count());
+      Assert.assertEquals(100000, histogram.max());
+      Assert.assertEquals(1, histogram.valueAt(0));
+      Assert.assertEquals(100000, histogram.valueAt(1));
+      long last = 0;
+      for (double quantile = 0; quantile <= 1; quantile += 0.001) {
+         long value = histogram.valueAt(quantile);
+         long exact = Math.max(1, (long) Math.ceil(quantile * 100000));
+         Assert.assertTrue(quantile + "", value >= last);
+         Assert.assertTrue(quantile + "", value >= exact && value - exact <= exact / 32);
+         last = value;
+      }
+   }
+
+   @Test public void valueAtNeverExceedsMax() {
+      AutocompleteMetrics.Histogram histogram = new AutocompleteMetrics.Histogram();
+      histogram.record(1000);
+      histogram.record(1001);
+      Assert.assertEquals(1001, histogram.valueAt(1));
+      Assert.assertEquals(1001, histogram.valueAt(0.5));
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void valueAtRejectsQuantileAboveOne() {
+      new AutocompleteMetrics.Histogram().valueAt(1.01);
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void valueAtRejectsNegativeQuantile() {
+      new AutocompleteMetrics.Histogram().valueAt(-0.01);
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void histogramRejectsNegativeValue() {
+      new AutocompleteMetrics.Histogram().record(-1);
+   }
+
+   @Test public void recordsRangeSizesProbesAndResults() {
+      Term[] terms = AutocompleteTest.randomTerms(new Random(2210), 1000);
+      Autocomplete index = new Autocomplete(terms);
+      AutocompleteMetrics metrics = new AutocompleteMetrics(0);
+      index.setMetrics(metrics);
+      Assert.assertSame(metrics, index.metrics());
+
+      for (String prefix : PREFIXES) {
+         metrics.reset();
+         int[] probes = new int[1];
+         int[] range = index.store().equalRange(prefix, probes);
+         int rangeSize = (range[0] == -1) ? 0 : range[1] - range[0] + 1;
+
+         index.allMatches(prefix);
+         Assert.assertEquals(prefix, rangeSize, metrics.rangeSizes().max());
+         Assert.assertEquals(prefix, rangeSize, metrics.resultSizes().max());
+         Assert.assertEquals(prefix, probes[0], metrics.probes().max());
+
+         metrics.reset();
+         index.allMatches(prefix, 5);
+         Assert.assertEquals(prefix, rangeSize, metrics.rangeSizes().max());
+         Assert.assertEquals(prefix, Math.min(5, rangeSize), metrics.resultSizes().max());
+         Assert.assertEquals(prefix, probes[0], metrics.probes().max());
+         Assert.assertEquals(1, metrics.latency().count());
+      }
+   }
+
+   @Test public void logsOnlySlowQueriesAndKeepsTheLatest() {
+      Term[] terms = AutocompleteTest.randomTerms(new Random(2210), 1000);
+      Autocomplete index = new Autocomplete(terms);
+      AutocompleteMetrics never = new AutocompleteMetrics(Long.MAX_VALUE);
+      index.setMetrics(never);
+      index.allMatches("a");
+      Assert.assertEquals(1, never.latency().count());
+      Assert.assertTrue(never.slowQueries().isEmpty());
+
+      AutocompleteMetrics always = new AutocompleteMetrics(0);
+      index.setMetrics(always);
+      for (int i = 0; i < 100; i++) {
+         index.allMatches(PREFIXES[i % PREFIXES.length], 3);
+      }
+      List<AutocompleteMetrics.SlowQuery> slow = always.slowQueries();
+      Assert.assertEquals(64, slow.size());
+      Assert.assertEquals(PREFIXES[36 % PREFIXES.length], slow.get(0).prefix());
+      Assert.assertEquals(PREFIXES[99 % PREFIXES.length], slow.get(63).prefix());
+      int[] range = index.store().equalRange(slow.get(63).prefix());
+      Assert.assertEquals(range[1] - range[0] + 1, slow.get(63).rangeSize());
+      Assert.assertEquals(3, slow.get(63).resultSize());
+      Assert.assertTrue(slow.get(63).nanos() >= 0);
+   }
+
+   @Test public void resetClearsEverything() {
+      Autocomplete index = new Autocomplete(AutocompleteTest.randomTerms(new Random(2210), 1000));
+      AutocompleteMetrics metrics = new AutocompleteMetrics(0);
+      index.setMetrics(metrics);
+      index.allMatches("a");
+      index.allMatches("b", 5);
+      metrics.reset();
+      for (AutocompleteMetrics.Histogram histogram : new AutocompleteMetrics.Histogram[] {
+            metrics.latency(), metrics.rangeSizes(), metrics.probes(), metrics.resultSizes()}) {
+         Assert.assertEquals(0, histogram.count());
+         Assert.assertEquals(0, histogram.max());
+         Assert.assertEquals(0, histogram.valueAt(0.99));
+      }
+      Assert.assertTrue(metrics.slowQueries().isEmpty());
+      index.allMatches("a");
+      Assert.assertEquals(1, metrics.latency().count());
+   }
+
+   @Test public void detachedMetricsRecordNothing() {
+      Autocomplete index = new Autocomplete(AutocompleteTest.randomTerms(new Random(2210), 100));
+      AutocompleteMetrics metrics = new AutocompleteMetrics();
+      index.setMetrics(metrics);
+      index.allMatches("a");
+      index.setMetrics(null);
+      index.allMatches("a");
+      Assert.assertNull(index.metrics());
+      Assert.assertEquals(1, metrics.latency().count());
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void rejectsNegativeThreshold() {
+      new AutocompleteMetrics(-1);
+   }
+}
@@ -0,0 +1,112 @@
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * One user's typing session against an Autocomplete index.
+ *
+ * As a prefix is typed one keystroke at a time, every new prefix extends
+ * the last one, so its matches lie within the range already found for
+ * the last one. A session remembers the ranges of the prefixes typed so
+ * far, each extending the one before, and searches only within the
+ * innermost range that still applies. Extending the prefix searches an
+ * ever smaller range; deleting characters goes back to a range already
+ * found, without searching at all. A prefix that is not an extension of
+ * anything remembered starts over from the whole index.
+ *
+ * A session is meant for one user's keystrokes and is not safe to share
+ * between threads; the index behind it may be.
+ *
+ */
+public class AutocompleteSession {
+
+   private final Autocomplete index;
+   private final TermStore store;
+   private final Deque<Typed> typed = new ArrayDeque<Typed>();
+
+   /**
+    * Starts a session against the given index. This method throws a
+    * NullPointerException if index is null.
+    */
+   public AutocompleteSession(Autocomplete index) {
+      if (index == null) {
+         throw new NullPointerException();
+      }
+      this.index = index;
+      this.store = index.store();
+   }
+
+   /**
+    * Returns all terms that start with the given prefix, in descending
+    * order of weight. This method throws a NullPointerException if prefix
+    * is null, and an IllegalArgumentException if prefix is empty.
+    */
+   public Term[] allMatches(String prefix) {
+      return index.allOf(rangeOf(prefix));
+   }
+
+   /**
+    * Returns the k heaviest terms that start with the given prefix, in
+    * descending order of weight. This method throws a NullPointerException
+    * if prefix is null, and an IllegalArgumentException if prefix is empty
+    * or k is negative.
+    */
+   public Term[] allMatches(String prefix, int k) {
+      if (k < 0) {
+         throw new IllegalArgumentException();
+      }
+      return index.topOf(rangeOf(prefix), k);
+   }
+
+   /** Forgets every remembered prefix, as when the input is cleared. */
+   public void reset() {
+      typed.clear();
+   }
+
+   /**
+    * Returns the range of the prefix, reusing or narrowing the remembered
+    * ranges, and remembers it.
+    */
+   private int[] rangeOf(String prefix) {
+      if (prefix == null) {
+         throw new NullPointerException();
+      }
+      if (prefix.length() == 0) {
+         throw new IllegalArgumentException();
+      }
+
+      String key = store.keyOf(prefix);
+      while (!typed.isEmpty() && !key.startsWith(typed.peek().key)) {
+         typed.pop();
+      }
+
+      if (!typed.isEmpty() && typed.peek().key.equals(key)) {
+         return typed.peek().range;
+      }
+
+      int[] range;
+      if (typed.isEmpty()) {
+         range = store.keyRange(key, 0, store.size() - 1, null);
+      }
+      else if (typed.peek().range[0] == -1) {
+         range = typed.peek().range;
+      }
+      else {
+         int[] outer = typed.peek().range;
+         range = store.keyRange(key, outer[0], outer[1], null);
+      }
+      typed.push(new Typed(key, range));
+      return range;
+   }
+
+   /** A prefix typed in this session and the range of terms it matches. */
+   private static class Typed {
+      final String key;
+      final int[] range;
+
+      Typed(String key, int[] range) {
+         this.key = key;
+         this.range = range;
+      }
+   }
+
+}
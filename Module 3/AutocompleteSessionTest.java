@@ -0,0 +1,106 @@
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for AutocompleteSession: whatever the keystrokes, a session
+ * answers every prefix as its index does.
+ */
+public class AutocompleteSessionTest {
+
+   /** Asserts that the session and the index agree on the prefix. */
+   private static void assertSameAsIndex(Autocomplete index, AutocompleteSession session,
+         String prefix, int k) {
+      Assert.assertEquals(prefix, Arrays.toString(index.allMatches(prefix)),
+         Arrays.toString(session.allMatches(prefix)));
+      Assert.assertEquals(prefix + " k=" + k, Arrays.toString(index.allMatches(prefix, k)),
+         Arrays.toString(session.allMatches(prefix, k)));
+   }
+
+   @Test public void randomKeystrokesAgreeWithIndex() {
+      Random rng = new Random(2210);
+      Term[] terms = AutocompleteTest.randomTerms(rng, 1000);
+      Autocomplete index = new Autocomplete(terms);
+      AutocompleteSession session = new AutocompleteSession(index);
+      StringBuilder typed = new StringBuilder();
+      for (int stroke = 0; stroke < 3000; stroke++) {
+         int action = rng.nextInt(10);
+         if (action < 6) {
+            typed.append((char) ('a' + rng.nextInt(5)));
+         }
+         else if (action < 9) {
+            typed.setLength(Math.max(0, typed.length() - 1 - rng.nextInt(3)));
+         }
+         else {
+            typed.setLength(0);
+            session.reset();
+         }
+         if (typed.length() > 0) {
+            assertSameAsIndex(index, session, typed.toString(), rng.nextInt(20));
+         }
+      }
+   }
+
+   @Test public void typingForwardNarrowsAndBackspacingWidens() {
+      Term[] terms = AutocompleteTest.randomTerms(new Random(2210), 1000);
+      Autocomplete index = new Autocomplete(terms);
+      AutocompleteSession session = new AutocompleteSession(index);
+      for (String prefix : new String[] {"a", "ab", "abc", "abcd", "abcde", "abcd", "abc", "ab", "a"}) {
+         assertSameAsIndex(index, session, prefix, 5);
+      }
+   }
+
+   @Test public void backspacingPastStartBeginsAnewPrefix() {
+      Autocomplete index = new Autocomplete(new Term[] {new Term("ab", 1), new Term("abc", 3),
+         new Term("b", 2), new Term("bd", 4)});
+      AutocompleteSession session = new AutocompleteSession(index);
+      Assert.assertEquals("[abc\t3]", Arrays.toString(session.allMatches("abc")));
+      Assert.assertEquals("[bd\t4, b\t2]", Arrays.toString(session.allMatches("b")));
+      Assert.assertEquals("[bd\t4]", Arrays.toString(session.allMatches("bd")));
+      Assert.assertEquals(0, session.allMatches("bdx").length);
+      Assert.assertEquals("[abc\t3, ab\t1]", Arrays.toString(session.allMatches("a")));
+   }
+
+   @Test public void resetStartsOverFromWholeIndex() {
+      Autocomplete index = new Autocomplete(new Term[] {new Term("ab", 1), new Term("abc", 3),
+         new Term("b", 2)});
+      AutocompleteSession session = new AutocompleteSession(index);
+      Assert.assertEquals(0, session.allMatches("ax").length);
+      session.reset();
+      Assert.assertEquals("[abc\t3, ab\t1]", Arrays.toString(session.allMatches("a")));
+      session.reset();
+      Assert.assertEquals("[abc\t3]", Arrays.toString(session.allMatches("abc", 5)));
+      Assert.assertEquals("[b\t2]", Arrays.toString(session.allMatches("b", 5)));
+   }
+
+   @Test public void normalizedSessionIgnoresCaseAndAccents() {
+      Term[] terms = {new Term("\u00C9p\u00E9e", 3), new Term("epic", 2), new Term("Eperon", 1)};
+      Autocomplete index = new Autocomplete(TermStore.normalized(terms));
+      AutocompleteSession session = new AutocompleteSession(index);
+      for (String prefix : new String[] {"E", "Ep", "\u00E9pe", "EP\u00C9E", "ep", "epi", "e"}) {
+         assertSameAsIndex(index, session, prefix, 2);
+      }
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void rejectsEmptyPrefix() {
+      new AutocompleteSession(new Autocomplete(new Term[] {new Term("ab", 1)})).allMatches("");
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void rejectsNegativeK() {
+      new AutocompleteSession(new Autocomplete(new Term[] {new Term("ab", 1)})).allMatches("a", -1);
+   }
+
+   @Test(expected = NullPointerException.class)
+   public void rejectsNullPrefix() {
+      new AutocompleteSession(new Autocomplete(new Term[] {new Term("ab", 1)})).allMatches(null, 1);
+   }
+
+   @Test(expected = NullPointerException.class)
+   public void rejectsNullIndex() {
+      new AutocompleteSession(null);
+   }
+}
@@ -0,0 +1,267 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary snapshot format for an Autocomplete index. The file holds the
+ * columns of a TermStore and the slots of its WeightIndex exactly as they
+ * are laid out in memory, so opening a snapshot is just a matter of
+ * mapping each section; nothing is parsed, sorted or rebuilt.
+ *
+ * Layout (little-endian, every section starts on an 8-byte boundary):
+ *
+ *    header       magic, version, term count, char count,
+ *                 key char count or -1 if not normalized (32 bytes)
+ *    weights      one long per term
+ *    tree         WeightIndex.treeSize(count) ints
+ *    offsets      count + 1 ints
+ *    chars        char count chars
+ *    key offsets  count + 1 ints, only in normalized snapshots
+ *    key chars    key char count chars, only in normalized snapshots
+ *
+ * Version 1 files have no key count and are read as not normalized.
+ *
+ */
+final class AutocompleteSnapshot {
+
+   // "ACMP" in ASCII
+   static final int MAGIC = 0x41434D50;
+   static final int VERSION = 2;
+   static final int HEADER_BYTES = 32;
+
+   private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+   private static final int CHUNK_BYTES = 1 << 16;
+
+   private AutocompleteSnapshot() {
+   }
+
+   /**
+    * Writes the given store and its weight index to the given file. The
+    * snapshot is written to a temporary file next to it, which then
+    * replaces the file atomically, so indexes already mapped from the old
+    * file keep reading the old contents.
+    */
+   static void write(Path file, TermStore store, WeightIndex index) throws IOException {
+      int n = store.size();
+      int keyCharCount = store.isNormalized() ? store.keyOffsets().get(n) : -1;
+      Layout layout = new Layout(n, store.charCount(), keyCharCount);
+      Path temp = tempFileFor(file);
+      try {
+         try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            writeHeader(channel, n, store.charCount(), keyCharCount);
+
+            Writer out = new Writer(channel, layout.weights);
+            LongBuffer weights = store.weights();
+            for (int i = 0; i < n; i++) {
+               out.putLong(weights.get(i));
+            }
+            out.flush();
+
+            out = new Writer(channel, layout.tree);
+            IntBuffer tree = index.tree();
+            for (int i = 0; i < tree.limit(); i++) {
+               out.putInt(tree.get(i));
+            }
+            out.flush();
+
+            out = new Writer(channel, layout.offsets);
+            IntBuffer offsets = store.offsets();
+            for (int i = 0; i <= n; i++) {
+               out.putInt(offsets.get(i));
+            }
+            out.flush();
+
+            out = new Writer(channel, layout.chars);
+            CharBuffer chars = store.chars();
+            for (int i = 0; i < store.charCount(); i++) {
+               out.putChar(chars.get(i));
+            }
+            out.flush();
+
+            if (store.isNormalized()) {
+               out = new Writer(channel, layout.keyOffsets);
+               IntBuffer keyOffsets = store.keyOffsets();
+               for (int i = 0; i <= n; i++) {
+                  out.putInt(keyOffsets.get(i));
+               }
+               out.flush();
+
+               out = new Writer(channel, layout.keyChars);
+               CharBuffer keyChars = store.keyChars();
+               for (int i = 0; i < keyCharCount; i++) {
+                  out.putChar(keyChars.get(i));
+               }
+               out.flush();
+            }
+            pad(channel, layout.end);
+         }
+         replace(temp, file);
+      }
+      finally {
+         Files.deleteIfExists(temp);
+      }
+   }
+
+   /** Creates an empty temporary file in the directory of the given file. */
+   static Path tempFileFor(Path file) throws IOException {
+      Path directory = file.toAbsolutePath().getParent();
+      return Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+   }
+
+   /** Atomically moves a finished temporary file over the given file. */
+   static void replace(Path temp, Path file) throws IOException {
+      Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+   }
+
+   /** Extends the file with zeros up to the given size, if it is shorter. */
+   static void pad(FileChannel channel, long size) throws IOException {
+      ByteBuffer zeros = ByteBuffer.allocate(8);
+      while (channel.size() < size) {
+         zeros.clear().limit((int) Math.min(8, size - channel.size()));
+         channel.write(zeros, channel.size());
+      }
+   }
+
+   /**
+    * Writes the header of a snapshot with the given dimensions; keyCharCount
+    * is -1 for a snapshot without normalized keys.
+    */
+   static void writeHeader(FileChannel channel, int n, int charCount, int keyCharCount)
+         throws IOException {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ORDER);
+      header.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(charCount).putInt(keyCharCount);
+      header.clear();
+      while (header.hasRemaining()) {
+         channel.write(header, header.position());
+      }
+   }
+
+   /**
+    * Maps the given snapshot file read-only and returns an index over it.
+    * This method throws an IOException if the file is not a snapshot or
+    * was written by an unsupported version.
+    */
+   static Autocomplete open(Path file) throws IOException {
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+         ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ORDER);
+         while (header.hasRemaining()) {
+            if (channel.read(header) < 0) {
+               break;
+            }
+         }
+         header.flip();
+         if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC) {
+            throw new IOException("not an autocomplete snapshot: " + file);
+         }
+         int version = header.getInt();
+         if (version < 1 || version > VERSION) {
+            throw new IOException("unsupported snapshot version " + version + ": " + file);
+         }
+         int n = header.getInt();
+         int charCount = header.getInt();
+         int keyCharCount = (version >= 2) ? header.getInt() : -1;
+         if (n < 0 || charCount < 0 || keyCharCount < -1) {
+            throw new IOException("corrupt autocomplete snapshot: " + file);
+         }
+         Layout layout = new Layout(n, charCount, keyCharCount);
+         if (channel.size() < layout.end) {
+            throw new IOException("truncated autocomplete snapshot: " + file);
+         }
+
+         LongBuffer weights = map(channel, layout.weights, 8L * n).asLongBuffer();
+         IntBuffer tree = map(channel, layout.tree, 4L * WeightIndex.treeSize(n)).asIntBuffer();
+         IntBuffer offsets = map(channel, layout.offsets, 4L * (n + 1)).asIntBuffer();
+         CharBuffer chars = map(channel, layout.chars, 2L * charCount).asCharBuffer();
+         CharBuffer keyChars = null;
+         IntBuffer keyOffsets = null;
+         if (keyCharCount >= 0) {
+            keyOffsets = map(channel, layout.keyOffsets, 4L * (n + 1)).asIntBuffer();
+            keyChars = map(channel, layout.keyChars, 2L * keyCharCount).asCharBuffer();
+         }
+         TermStore store = new TermStore(chars, offsets, weights, keyChars, keyOffsets);
+         return new Autocomplete(store, new WeightIndex(weights, tree));
+      }
+   }
+
+   private static ByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+      return channel.map(FileChannel.MapMode.READ_ONLY, position, size).order(ORDER);
+   }
+
+   /**
+    * File positions of each section for a given number of terms and chars.
+    * A keyCharCount of -1 means there are no key sections.
+    */
+   static final class Layout {
+      final long weights;
+      final long tree;
+      final long offsets;
+      final long chars;
+      final long keyOffsets;
+      final long keyChars;
+      final long end;
+
+      Layout(int n, int charCount, int keyCharCount) {
+         weights = HEADER_BYTES;
+         tree = weights + 8L * n;
+         offsets = align(tree + 4L * WeightIndex.treeSize(n));
+         chars = align(offsets + 4L * (n + 1));
+         keyOffsets = align(chars + 2L * charCount);
+         keyChars = align(keyOffsets + 4L * (n + 1));
+         end = (keyCharCount < 0) ? chars + 2L * charCount : keyChars + 2L * keyCharCount;
+      }
+
+      private static long align(long position) {
+         return (position + 7) & ~7L;
+      }
+   }
+
+   /** Buffered sequential writer for one section, starting at a given position. */
+   static final class Writer {
+      private final FileChannel channel;
+      private final ByteBuffer buffer = ByteBuffer.allocate(CHUNK_BYTES).order(ORDER);
+      private long position;
+
+      Writer(FileChannel channel, long position) {
+         this.channel = channel;
+         this.position = position;
+      }
+
+      void putLong(long value) throws IOException {
+         if (buffer.remaining() < 8) {
+            flush();
+         }
+         buffer.putLong(value);
+      }
+
+      void putInt(int value) throws IOException {
+         if (buffer.remaining() < 4) {
+            flush();
+         }
+         buffer.putInt(value);
+      }
+
+      void putChar(char value) throws IOException {
+         if (buffer.remaining() < 2) {
+            flush();
+         }
+         buffer.putChar(value);
+      }
+
+      void flush() throws IOException {
+         buffer.flip();
+         while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+         }
+         buffer.clear();
+      }
+   }
+
+}
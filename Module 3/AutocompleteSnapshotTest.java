@@ -0,0 +1,132 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for saving and opening Autocomplete snapshots: an opened snapshot
+ * answers as the saved index did, version 1 files still open, damaged or
+ * foreign files are rejected, and saving over an open snapshot leaves it
+ * intact.
+ */
+public class AutocompleteSnapshotTest {
+
+   private static final String[] PREFIXES = {"a", "b", "ab", "ba", "abc", "cab", "dddd", "e"};
+
+   private Path dir;
+
+   @Before public void setUp() throws IOException {
+      dir = Files.createTempDirectory("snapshot");
+   }
+
+   @After public void tearDown() throws IOException {
+      for (Path file : Files.newDirectoryStream(dir)) {
+         Files.delete(file);
+      }
+      Files.delete(dir);
+   }
+
+   private static void assertSameMatches(Autocomplete expected, Autocomplete actual) {
+      for (String prefix : PREFIXES) {
+         Assert.assertEquals(prefix, Arrays.toString(expected.allMatches(prefix)),
+            Arrays.toString(actual.allMatches(prefix)));
+         Assert.assertEquals(prefix, Arrays.toString(expected.allMatches(prefix, 5)),
+            Arrays.toString(actual.allMatches(prefix, 5)));
+      }
+   }
+
+   /** Overwrites the int at the given byte position of the file. */
+   private static void putInt(Path file, int position, int value) throws IOException {
+      byte[] bytes = Files.readAllBytes(file);
+      ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putInt(position, value);
+      Files.write(file, bytes);
+   }
+
+   @Test public void openedSnapshotAnswersAsSavedIndex() throws IOException {
+      Autocomplete index = new Autocomplete(AutocompleteTest.randomTerms(new Random(2210), 1000));
+      Path file = dir.resolve("terms.snapshot");
+      index.save(file);
+      assertSameMatches(index, Autocomplete.open(file));
+   }
+
+   @Test public void openedSnapshotKeepsNormalizedKeys() throws IOException {
+      String epee = "\u00C9p\u00E9e";
+      Term[] terms = {new Term(epee, 3), new Term("epic", 2), new Term("Eperon", 1)};
+      Path file = dir.resolve("terms.snapshot");
+      new Autocomplete(TermStore.normalized(terms)).save(file);
+      Autocomplete opened = Autocomplete.open(file);
+      Assert.assertEquals("[" + epee + "\t3, Eperon\t1]",
+         Arrays.toString(opened.allMatches("epe")));
+      Assert.assertEquals("[" + epee + "\t3, epic\t2, Eperon\t1]",
+         Arrays.toString(opened.allMatches("EP")));
+   }
+
+   @Test public void opensVersion1Snapshot() throws IOException {
+      Autocomplete index = new Autocomplete(AutocompleteTest.randomTerms(new Random(2210), 1000));
+      Path file = dir.resolve("terms.snapshot");
+      index.save(file);
+      // version 1 headers had no key char count, just zero padding
+      putInt(file, 4, 1);
+      putInt(file, 16, 0);
+      Autocomplete opened = Autocomplete.open(file);
+      Assert.assertFalse(opened.store().isNormalized());
+      assertSameMatches(index, opened);
+   }
+
+   @Test public void savingOverOpenSnapshotLeavesOpenedIndexIntact() throws IOException {
+      Path file = dir.resolve("terms.snapshot");
+      new Autocomplete(new Term[] {new Term("ab", 1), new Term("abc", 2)}).save(file);
+      Autocomplete opened = Autocomplete.open(file);
+      new Autocomplete(new Term[] {new Term("z", 1)}).save(file);
+      Assert.assertEquals("[abc\t2, ab\t1]", Arrays.toString(opened.allMatches("a")));
+      Assert.assertEquals(0, Autocomplete.open(file).allMatches("a").length);
+   }
+
+   @Test(expected = IOException.class)
+   public void rejectsBadMagic() throws IOException {
+      Path file = dir.resolve("terms.snapshot");
+      new Autocomplete(new Term[] {new Term("ab", 1)}).save(file);
+      putInt(file, 0, 0x12345678);
+      Autocomplete.open(file);
+   }
+
+   @Test(expected = IOException.class)
+   public void rejectsNewerVersion() throws IOException {
+      Path file = dir.resolve("terms.snapshot");
+      new Autocomplete(new Term[] {new Term("ab", 1)}).save(file);
+      putInt(file, 4, AutocompleteSnapshot.VERSION + 1);
+      Autocomplete.open(file);
+   }
+
+   @Test(expected = IOException.class)
+   public void rejectsVersionZero() throws IOException {
+      Path file = dir.resolve("terms.snapshot");
+      new Autocomplete(new Term[] {new Term("ab", 1)}).save(file);
+      putInt(file, 4, 0);
+      Autocomplete.open(file);
+   }
+
+   @Test(expected = IOException.class)
+   public void rejectsTruncatedSnapshot() throws IOException {
+      Path file = dir.resolve("terms.snapshot");
+      new Autocomplete(new Term[] {new Term("ab", 1), new Term("abc", 2)}).save(file);
+      byte[] bytes = Files.readAllBytes(file);
+      Files.write(file, Arrays.copyOf(bytes, bytes.length - 2));
+      Autocomplete.open(file);
+   }
+
+   @Test(expected = IOException.class)
+   public void rejectsShortFile() throws IOException {
+      Path file = dir.resolve("terms.snapshot");
+      Files.write(file, new byte[] {'A', 'C'});
+      Autocomplete.open(file);
+   }
+}
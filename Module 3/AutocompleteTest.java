@@ -0,0 +1,319 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for Autocomplete: prefix, batch and infix matches agree with a
+ * scan of every term sorted by descending weight.
+ */
+public class AutocompleteTest {
+
+   private static final String[] PREFIXES = {"a", "b", "ab", "ba", "abc", "cab", "dddd", "e"};
+
+   /**
+    * Returns distinct random queries over "abcd" with distinct weights.
+    * Other tests share this and scan as their fixture.
+    */
+   static Term[] randomTerms(Random rng, int count) {
+      return randomTerms(rng, count, "abcd");
+   }
+
+   /** Returns distinct random queries over the given letters with distinct weights. */
+   static Term[] randomTerms(Random rng, int count, String letters) {
+      Set<String> queries = new LinkedHashSet<String>();
+      while (queries.size() < count) {
+         StringBuilder query = new StringBuilder();
+         int length = 1 + rng.nextInt(6);
+         for (int j = 0; j < length; j++) {
+            query.append(letters.charAt(rng.nextInt(letters.length())));
+         }
+         queries.add(query.toString());
+      }
+      List<Long> weights = new ArrayList<Long>();
+      for (long w = 0; w < count; w++) {
+         weights.add(w);
+      }
+      Collections.shuffle(weights, rng);
+      Term[] terms = new Term[count];
+      int i = 0;
+      for (String query : queries) {
+         terms[i] = new Term(query, weights.get(i));
+         i++;
+      }
+      return terms;
+   }
+
+   /** Returns the k heaviest terms starting with prefix, found by a scan. */
+   static String scan(Term[] terms, String prefix, int k) {
+      List<Term> matches = new ArrayList<Term>();
+      for (Term term : terms) {
+         if (term.query.startsWith(prefix)) {
+            matches.add(term);
+         }
+      }
+      Collections.sort(matches, Term.byDescendingWeightOrder());
+      return matches.subList(0, Math.min(k, matches.size())).toString();
+   }
+
+   /** Returns distinct random phrases of one to three words over "abcd" with distinct weights. */
+   private static Term[] randomPhrases(Random rng, int count) {
+      String[] separators = {" ", " ", "  ", "\t"};
+      Set<String> queries = new LinkedHashSet<String>();
+      while (queries.size() < count) {
+         StringBuilder query = new StringBuilder();
+         int words = 1 + rng.nextInt(3);
+         for (int w = 0; w < words; w++) {
+            if (w > 0) {
+               query.append(separators[rng.nextInt(separators.length)]);
+            }
+            int length = 1 + rng.nextInt(3);
+            for (int j = 0; j < length; j++) {
+               query.append((char) ('a' + rng.nextInt(4)));
+            }
+         }
+         queries.add(query.toString());
+      }
+      Term[] terms = new Term[count];
+      int i = 0;
+      for (String query : queries) {
+         terms[i] = new Term(query, (i * 7919L) % count);
+         i++;
+      }
+      return terms;
+   }
+
+   /** Returns the k heaviest terms with a word starting with prefix, found by a scan. */
+   private static String infixScan(Term[] terms, String prefix, int k) {
+      List<Term> matches = new ArrayList<Term>();
+      for (Term term : terms) {
+         String query = term.query;
+         boolean match = query.startsWith(prefix);
+         for (int j = 1; j < query.length() && !match; j++) {
+            match = Character.isWhitespace(query.charAt(j - 1))
+               && !Character.isWhitespace(query.charAt(j)) && query.startsWith(prefix, j);
+         }
+         if (match) {
+            matches.add(term);
+         }
+      }
+      Collections.sort(matches, Term.byDescendingWeightOrder());
+      return matches.subList(0, Math.min(k, matches.size())).toString();
+   }
+
+   @Test public void allMatchesAgreesWithScan() {
+      Term[] terms = randomTerms(new Random(2210), 1000);
+      Autocomplete index = new Autocomplete(terms);
+      for (String prefix : PREFIXES) {
+         Assert.assertEquals(prefix, scan(terms, prefix, terms.length),
+            Arrays.toString(index.allMatches(prefix)));
+      }
+   }
+
+   @Test public void topMatchesAgreeWithScan() {
+      Term[] terms = randomTerms(new Random(2210), 1000);
+      Autocomplete index = new Autocomplete(terms);
+      for (String prefix : PREFIXES) {
+         for (int k : new int[] {0, 1, 5, 50, terms.length + 1}) {
+            Assert.assertEquals(prefix + " k=" + k, scan(terms, prefix, k),
+               Arrays.toString(index.allMatches(prefix, k)));
+         }
+      }
+   }
+
+   @Test public void kBeyondMatchCountReturnsEveryMatch() {
+      Autocomplete index = new Autocomplete(new Term[] {new Term("ab", 1), new Term("abc", 3),
+         new Term("b", 2)});
+      Assert.assertEquals("[abc\t3, ab\t1]", Arrays.toString(index.allMatches("a", 10)));
+      Assert.assertEquals(0, index.allMatches("a", 0).length);
+      Assert.assertEquals(0, index.allMatches("z", 10).length);
+   }
+
+   /** Returns random prefixes over "abcde", many of them repeated or nested in one another. */
+   private static List<String> randomPrefixes(Random rng, int count) {
+      List<String> prefixes = new ArrayList<String>();
+      for (int i = 0; i < count; i++) {
+         if (i > 0 && rng.nextInt(3) == 0) {
+            String earlier = prefixes.get(rng.nextInt(i));
+            prefixes.add(rng.nextBoolean() ? earlier : earlier + (char) ('a' + rng.nextInt(5)));
+            continue;
+         }
+         StringBuilder prefix = new StringBuilder();
+         int length = 1 + rng.nextInt(4);
+         for (int j = 0; j < length; j++) {
+            prefix.append((char) ('a' + rng.nextInt(5)));
+         }
+         prefixes.add(prefix.toString());
+      }
+      return prefixes;
+   }
+
+   @Test public void batchMatchesAgreeWithSingleMatches() {
+      Random rng = new Random(2210);
+      Term[] terms = randomTerms(rng, 1000);
+      Autocomplete index = new Autocomplete(terms);
+      ForkJoinPool pool = new ForkJoinPool(4);
+      try {
+         for (int round = 0; round < 50; round++) {
+            List<String> prefixes = randomPrefixes(rng, 1 + rng.nextInt(40));
+            int k = rng.nextInt(4) * 5;
+            Term[][] batch = index.allMatches(prefixes, k);
+            Term[][] pooled = index.allMatches(prefixes, k, pool);
+            Assert.assertEquals(prefixes.size(), batch.length);
+            for (int i = 0; i < batch.length; i++) {
+               String expected = scan(terms, prefixes.get(i), k);
+               Assert.assertEquals(prefixes.get(i), expected, Arrays.toString(batch[i]));
+               Assert.assertEquals(prefixes.get(i), expected, Arrays.toString(pooled[i]));
+            }
+         }
+      }
+      finally {
+         pool.shutdown();
+      }
+   }
+
+   @Test public void batchResultsFollowListOrder() {
+      Autocomplete index = new Autocomplete(new Term[] {new Term("ab", 1), new Term("abc", 3),
+         new Term("b", 2), new Term("bd", 4)});
+      Term[][] batch = index.allMatches(Arrays.asList("b", "abc", "z", "a", "ab", "b", "aa"), 5);
+      Assert.assertEquals("[[bd\t4, b\t2], [abc\t3], [], [abc\t3, ab\t1], [abc\t3, ab\t1], "
+         + "[bd\t4, b\t2], []]", Arrays.deepToString(batch));
+      Assert.assertEquals(0, index.allMatches(new ArrayList<String>(), 5).length);
+   }
+
+   @Test public void normalizedBatchMatchesAgreeWithSingleMatches() {
+      Term[] terms = {new Term("\u00C9p\u00E9e", 3), new Term("epic", 2), new Term("Eperon", 1),
+         new Term("apex", 4)};
+      Autocomplete index = new Autocomplete(TermStore.normalized(terms));
+      List<String> prefixes = Arrays.asList("EP", "\u00E9p\u00E9", "a", "ep", "x", "Epe");
+      Term[][] batch = index.allMatches(prefixes, 10);
+      for (int i = 0; i < batch.length; i++) {
+         String prefix = prefixes.get(i);
+         Assert.assertEquals(prefix, Arrays.toString(index.allMatches(prefix, 10)),
+            Arrays.toString(batch[i]));
+      }
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void batchRejectsEmptyPrefix() {
+      new Autocomplete(new Term[] {new Term("ab", 1)}).allMatches(Arrays.asList("a", ""), 1);
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void batchRejectsNegativeK() {
+      new Autocomplete(new Term[] {new Term("ab", 1)}).allMatches(Arrays.asList("a"), -1);
+   }
+
+   @Test(expected = NullPointerException.class)
+   public void batchRejectsNullPrefix() {
+      new Autocomplete(new Term[] {new Term("ab", 1)}).allMatches(Arrays.asList("a", null), 1);
+   }
+
+   @Test public void infixMatchesAgreeWithScan() {
+      Term[] terms = randomPhrases(new Random(2210), 1000);
+      Autocomplete index = new Autocomplete(terms);
+      for (String prefix : PREFIXES) {
+         Assert.assertEquals(prefix, infixScan(terms, prefix, terms.length),
+            Arrays.toString(index.infixMatches(prefix)));
+         for (int k : new int[] {0, 1, 5, 50}) {
+            Assert.assertEquals(prefix + " k=" + k, infixScan(terms, prefix, k),
+               Arrays.toString(index.infixMatches(prefix, k)));
+         }
+      }
+   }
+
+   @Test public void infixMatchesEachTermOnce() {
+      Autocomplete index = new Autocomplete(new Term[] {new Term("new york", 5),
+         new Term("york new york", 4), new Term("newyork", 3), new Term("old york", 2)});
+      Assert.assertEquals("[new york\t5, york new york\t4, old york\t2]",
+         Arrays.toString(index.infixMatches("york")));
+      Assert.assertEquals("[new york\t5, york new york\t4, newyork\t3]",
+         Arrays.toString(index.infixMatches("new")));
+      Assert.assertEquals("[new york\t5]", Arrays.toString(index.infixMatches("ne", 1)));
+      Assert.assertEquals(0, index.infixMatches("ork").length);
+   }
+
+   @Test public void normalizedInfixMatchesIgnoreCaseAndAccents() {
+      String cremeBrulee = "Cr\u00E8me Br\u00FBl\u00E9e";
+      String cafeCreme = "Caf\u00E9 Cr\u00E8me";
+      Term[] terms = {new Term(cremeBrulee, 3), new Term("brulee", 2), new Term(cafeCreme, 1)};
+      Autocomplete index = new Autocomplete(TermStore.normalized(terms));
+      Assert.assertEquals("[" + cremeBrulee + "\t3, brulee\t2]",
+         Arrays.toString(index.infixMatches("BRU")));
+      Assert.assertEquals("[" + cremeBrulee + "\t3, " + cafeCreme + "\t1]",
+         Arrays.toString(index.infixMatches("creme")));
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void infixMatchesRejectsEmptyPrefix() {
+      new Autocomplete(new Term[] {new Term("a b", 1)}).infixMatches("", 1);
+   }
+
+   @Test public void parallelBuildMatchesSequentialBuild() throws Exception {
+      Random rng = new Random(2210);
+      Term[] terms = new Term[50000];
+      for (int i = 0; i < terms.length; i++) {
+         StringBuilder query = new StringBuilder();
+         int length = 1 + rng.nextInt(8);
+         for (int j = 0; j < length; j++) {
+            query.append((char) ('a' + rng.nextInt(4)));
+         }
+         terms[i] = new Term(query.toString(), rng.nextInt(1000));
+      }
+      List<String> prefixes = new ArrayList<String>();
+      for (String first : new String[] {"a", "b", "c", "d", "e"}) {
+         prefixes.add(first);
+         for (char second = 'a'; second <= 'e'; second++) {
+            prefixes.add(first + second);
+            prefixes.add(first + second + first);
+         }
+      }
+
+      Autocomplete sequential = new Autocomplete(terms);
+      ForkJoinPool pool = new ForkJoinPool(4);
+      try {
+         Autocomplete parallel = pool.submit(() -> new Autocomplete(terms, true)).get();
+         TermStore store = sequential.store();
+         TermStore parallelStore = parallel.store();
+         Assert.assertEquals(store.size(), parallelStore.size());
+         for (int i = 0; i < store.size(); i++) {
+            Assert.assertEquals(store.query(i), parallelStore.query(i));
+            Assert.assertEquals(store.weight(i), parallelStore.weight(i));
+         }
+         for (String prefix : prefixes) {
+            Assert.assertEquals(prefix, Arrays.toString(sequential.allMatches(prefix)),
+               Arrays.toString(parallel.allMatches(prefix)));
+            for (int k : new int[] {0, 1, 10, 1000}) {
+               Assert.assertEquals(prefix + " k=" + k,
+                  Arrays.toString(sequential.allMatches(prefix, k)),
+                  Arrays.toString(parallel.allMatches(prefix, k)));
+            }
+         }
+      }
+      finally {
+         pool.shutdown();
+      }
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void rejectsEmptyPrefix() {
+      new Autocomplete(new Term[] {new Term("ab", 1)}).allMatches("", 1);
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void rejectsNegativeK() {
+      new Autocomplete(new Term[] {new Term("ab", 1)}).allMatches("a", -1);
+   }
+
+   @Test(expected = NullPointerException.class)
+   public void rejectsNullPrefix() {
+      new Autocomplete(new Term[] {new Term("ab", 1)}).allMatches((String) null, 1);
+   }
+}
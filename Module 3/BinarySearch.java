@@ -1,4 +1,3 @@
-import java.util.Arrays;
 import java.util.Comparator;
 
 /**
@@ -8,15 +7,17 @@ public class BinarySearch {
 
    /**
     * Returns the index of the first key in a[] that equals the search key, 
-    * or -1 if no such key exists. This method throws a NullPointerException
-    * if any parameter is null.
+    * or -1 if no such key exists. a[] must already be sorted in the order
+    * imposed by comparator; this is checked only when assertions are
+    * enabled. This method throws a NullPointerException if any parameter
+    * is null.
     */
    public static <Key> int firstIndexOf(Key[] a, Key key, Comparator<Key> comparator) {
       if (a == null || key == null || comparator == null) {
          throw new NullPointerException();
       }
       
-      Arrays.sort(a);
+      assert isSorted(a, comparator);
       int left = 0;
       int right = a.length - 1;
       int firstIndex = -1;
@@ -43,15 +44,17 @@ public class BinarySearch {
 
    /**
     * Returns the index of the last key in a[] that equals the search key, 
-    * or -1 if no such key exists. This method throws a NullPointerException
-    * if any parameter is null.
+    * or -1 if no such key exists. a[] must already be sorted in the order
+    * imposed by comparator; this is checked only when assertions are
+    * enabled. This method throws a NullPointerException if any parameter
+    * is null.
     */
    public static <Key> int lastIndexOf(Key[] a, Key key, Comparator<Key> comparator) {
       if (a == null || key == null || comparator == null) {
          throw new NullPointerException();
       }
       
-      Arrays.sort(a);
+      assert isSorted(a, comparator);
       int left = 0;
       int right = a.length - 1;
       int lastIndex = -1;
@@ -75,4 +78,88 @@ public class BinarySearch {
       return lastIndex;
    }
 
+   /**
+    * Returns the indices of the first and last keys in a[] that equal the
+    * search key as a two-element array, or {-1, -1} if no such key exists.
+    * Both bounds come out of a single search: once a matching key is
+    * found, the remaining work is split into a search for the first match
+    * to its left and a search for the last match to its right. a[] must
+    * already be sorted in the order imposed by comparator; this is checked
+    * only when assertions are enabled, and the result is unspecified for
+    * unsorted input. This method throws a NullPointerException if any
+    * parameter is null.
+    */
+   public static <Key> int[] equalRange(Key[] a, Key key, Comparator<Key> comparator) {
+      if (a == null || key == null || comparator == null) {
+         throw new NullPointerException();
+      }
+      
+      assert isSorted(a, comparator);
+      int left = 0;
+      int right = a.length - 1;
+      
+      while (left <= right) {
+         int middle = (left + right) >>> 1;
+         int comp = comparator.compare(key, a[middle]);
+         
+         if (comp < 0) {
+            right = middle - 1;
+         }
+         
+         else if (comp > 0) {
+            left = middle + 1;
+         }
+         
+         else {
+            return new int[] {lowerBound(a, key, comparator, left, middle),
+               upperBound(a, key, comparator, middle, right)};
+         }
+      }
+      return new int[] {-1, -1};
+   }
+
+   /** Returns the first index in [left, hit] whose key equals a[hit]. */
+   private static <Key> int lowerBound(Key[] a, Key key, Comparator<Key> comparator,
+         int left, int hit) {
+      int right = hit - 1;
+      while (left <= right) {
+         int middle = (left + right) >>> 1;
+         if (comparator.compare(key, a[middle]) > 0) {
+            left = middle + 1;
+         }
+         
+         else {
+            right = middle - 1;
+         }
+      }
+      return left;
+   }
+
+   /** Returns the last index in [hit, right] whose key equals a[hit]. */
+   private static <Key> int upperBound(Key[] a, Key key, Comparator<Key> comparator,
+         int hit, int right) {
+      int left = hit + 1;
+      while (left <= right) {
+         int middle = (left + right) >>> 1;
+         if (comparator.compare(key, a[middle]) < 0) {
+            right = middle - 1;
+         }
+         
+         else {
+            left = middle + 1;
+         }
+      }
+      return right;
+   }
+
+   /** Returns true if a[] is in ascending order according to comparator. */
+   private static <Key> boolean isSorted(Key[] a, Comparator<Key> comparator) {
+      for (int i = 1; i < a.length; i++) {
+         if (comparator.compare(a[i - 1], a[i]) > 0) {
+            return false;
+         }
+      }
+      return true;
+   }
+
 }
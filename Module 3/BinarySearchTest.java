@@ -0,0 +1,105 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for BinarySearch: on sorted arrays, equalRange agrees with
+ * firstIndexOf and lastIndexOf and with a linear scan, for present and
+ * absent keys and for long runs of equal keys. Every search requires its
+ * array to be sorted already, so every array here is sorted first.
+ */
+public class BinarySearchTest {
+
+   private static final Comparator<Integer> NATURAL = Comparator.naturalOrder();
+
+   /** Returns a sorted array of count values drawn from [0, bound). */
+   private static Integer[] sortedValues(Random rng, int count, int bound) {
+      Integer[] a = new Integer[count];
+      for (int i = 0; i < count; i++) {
+         a[i] = rng.nextInt(bound);
+      }
+      Arrays.sort(a);
+      return a;
+   }
+
+   /** Asserts that equalRange, firstIndexOf, lastIndexOf and a scan agree on key. */
+   private static <Key> void assertAgree(Key[] a, Key key, Comparator<Key> comparator) {
+      int first = -1;
+      int last = -1;
+      for (int i = 0; i < a.length; i++) {
+         if (comparator.compare(key, a[i]) == 0) {
+            first = (first == -1) ? i : first;
+            last = i;
+         }
+      }
+      String message = key + " in " + Arrays.toString(a);
+      Assert.assertEquals(message, first, BinarySearch.firstIndexOf(a, key, comparator));
+      Assert.assertEquals(message, last, BinarySearch.lastIndexOf(a, key, comparator));
+      Assert.assertArrayEquals(message, new int[] {first, last},
+         BinarySearch.equalRange(a, key, comparator));
+   }
+
+   @Test public void equalRangeAgreesWithFirstAndLastIndex() {
+      Random rng = new Random(2210);
+      for (int count = 0; count <= 40; count++) {
+         for (int bound : new int[] {1, 2, 5, 50}) {
+            Integer[] a = sortedValues(rng, count, bound);
+            for (int key = -1; key <= bound; key++) {
+               assertAgree(a, key, NATURAL);
+            }
+         }
+      }
+   }
+
+   @Test public void findsEveryKeyOfLargeArrays() {
+      Random rng = new Random(2210);
+      for (int bound : new int[] {10, 1000, 100000}) {
+         Integer[] a = sortedValues(rng, 10000, bound);
+         for (int i = 0; i < 500; i++) {
+            assertAgree(a, rng.nextInt(bound + 2) - 1, NATURAL);
+         }
+      }
+   }
+
+   @Test public void findsWholeArrayOfEqualKeys() {
+      for (int count = 1; count <= 100; count++) {
+         Integer[] a = new Integer[count];
+         Arrays.fill(a, 7);
+         Assert.assertArrayEquals(new int[] {0, count - 1}, BinarySearch.equalRange(a, 7, NATURAL));
+         Assert.assertArrayEquals(new int[] {-1, -1}, BinarySearch.equalRange(a, 6, NATURAL));
+         Assert.assertArrayEquals(new int[] {-1, -1}, BinarySearch.equalRange(a, 8, NATURAL));
+      }
+   }
+
+   @Test public void searchesByTermPrefix() {
+      Term[] terms = AutocompleteTest.randomTerms(new Random(2210), 1000);
+      Arrays.sort(terms);
+      for (String prefix : new String[] {"a", "ab", "abc", "dddd", "dddddd", "e"}) {
+         assertAgree(terms, new Term(prefix, 0), Term.byPrefixOrder(prefix.length()));
+      }
+   }
+
+   @Test public void searchesInComparatorOrderWithoutSorting() {
+      Integer[] a = {1, 2, 2, 3};
+      Comparator<Integer> reversed = Comparator.reverseOrder();
+      Integer[] descending = {3, 2, 2, 1};
+      Assert.assertArrayEquals(new int[] {1, 2}, BinarySearch.equalRange(descending, 2, reversed));
+      Assert.assertEquals(0, BinarySearch.firstIndexOf(descending, 3, reversed));
+      Assert.assertArrayEquals(new Integer[] {3, 2, 2, 1}, descending);
+      Assert.assertArrayEquals(new int[] {1, 2}, BinarySearch.equalRange(a, 2, NATURAL));
+      Assert.assertArrayEquals(new Integer[] {1, 2, 2, 3}, a);
+   }
+
+   @Test(expected = NullPointerException.class)
+   public void equalRangeRejectsNullKey() {
+      BinarySearch.equalRange(new Integer[] {1}, null, NATURAL);
+   }
+
+   @Test(expected = NullPointerException.class)
+   public void equalRangeRejectsNullArray() {
+      BinarySearch.equalRange(null, 1, NATURAL);
+   }
+}
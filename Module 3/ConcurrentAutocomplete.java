@@ -0,0 +1,130 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Thread-safe Autocomplete that can be replaced while it is serving.
+ *
+ * Every Autocomplete is immutable once built, so the current version is
+ * simply published through an AtomicReference. A query reads the
+ * reference once and runs entirely against that version; swapping in a
+ * new version never blocks a reader and never exposes a half-built one.
+ *
+ * An optional ResultCache holds results for hot prefixes. Cached results
+ * are tagged with the version they came from, so a swap invalidates them.
+ *
+ */
+public class ConcurrentAutocomplete {
+
+   private final AtomicReference<Version> current;
+   private final ResultCache cache;
+
+   /**
+    * Initializes the wrapper with the given index as its first version.
+    * This method throws a NullPointerException if index is null.
+    */
+   public ConcurrentAutocomplete(Autocomplete index) {
+      this(index, null);
+   }
+
+   /**
+    * Initializes the wrapper with the given index as its first version,
+    * caching results in the given cache, or not caching if it is null.
+    * This method throws a NullPointerException if index is null.
+    */
+   public ConcurrentAutocomplete(Autocomplete index, ResultCache cache) {
+      if (index == null) {
+         throw new NullPointerException();
+      }
+      this.current = new AtomicReference<Version>(new Version(index, 0));
+      this.cache = cache;
+   }
+
+   /** Returns the version of the index that is currently published. */
+   public Autocomplete current() {
+      return current.get().index;
+   }
+
+   /** Returns the result cache, or null if results are not cached. */
+   public ResultCache cache() {
+      return cache;
+   }
+
+   /**
+    * Returns all terms that start with the given prefix, in descending
+    * order of weight, from the current version. This method throws a
+    * NullPointerException if prefix is null, and an
+    * IllegalArgumentException if prefix is empty.
+    */
+   public Term[] allMatches(String prefix) {
+      return allMatches(prefix, Integer.MAX_VALUE);
+   }
+
+   /**
+    * Returns the k heaviest terms that start with the given prefix, in
+    * descending order of weight, from the current version. This method
+    * throws a NullPointerException if prefix is null, and an
+    * IllegalArgumentException if prefix is empty or k is negative.
+    */
+   public Term[] allMatches(String prefix, int k) {
+      Version version = current.get();
+      if (cache == null) {
+         return version.matches(prefix, k);
+      }
+
+      Term[] result = cache.get(prefix, k, version.number);
+      if (result == null) {
+         result = version.matches(prefix, k);
+         cache.put(prefix, k, version.number, result);
+      }
+      return result.clone();
+   }
+
+   /**
+    * Publishes the given index and returns the version it replaced.
+    * Queries already running finish against the old version. This method
+    * throws a NullPointerException if index is null.
+    */
+   public Autocomplete swap(Autocomplete index) {
+      if (index == null) {
+         throw new NullPointerException();
+      }
+      return current.getAndUpdate(old -> new Version(index, old.number + 1)).index;
+   }
+
+   /**
+    * Builds a new index from the given terms on the given executor and
+    * publishes it when it is complete. The current version keeps serving
+    * until then. This method throws a NullPointerException if either
+    * parameter is null.
+    */
+   public CompletableFuture<Autocomplete> rebuild(Term[] terms, Executor executor) {
+      if (terms == null || executor == null) {
+         throw new NullPointerException();
+      }
+      return CompletableFuture.supplyAsync(() -> new Autocomplete(terms), executor)
+         .thenApply(index -> {
+            swap(index);
+            return index;
+         });
+   }
+
+   /** A published index with a number that grows with every swap. */
+   private static class Version {
+      final Autocomplete index;
+      final long number;
+
+      Version(Autocomplete index, long number) {
+         this.index = index;
+         this.number = number;
+      }
+
+      Term[] matches(String prefix, int k) {
+         if (k == Integer.MAX_VALUE) {
+            return index.allMatches(prefix);
+         }
+         return index.allMatches(prefix, k);
+      }
+   }
+
+}
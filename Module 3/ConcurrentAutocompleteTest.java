@@ -0,0 +1,139 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Stress tests for ConcurrentAutocomplete: queries run on several threads
+ * while another thread keeps swapping index versions underneath them.
+ */
+public class ConcurrentAutocompleteTest {
+
+   private static final String[] PREFIXES = {"a", "ab", "b", "ba", "c"};
+   private static final int VERSIONS = 4;
+   private static final int READERS = 4;
+
+   /**
+    * Builds one version of the index. Every weight in version v ends in
+    * the digit v, and the ranking differs from version to version, so a
+    * result that mixed two versions could not match any expected answer.
+    */
+   private static Term[] version(int v) {
+      String[] queries = {"a", "ab", "abc", "abd", "b", "ba", "bab", "bb", "c", "ca"};
+      Term[] terms = new Term[queries.length];
+      for (int i = 0; i < queries.length; i++) {
+         long rank = (i * (v + 3)) % queries.length;
+         terms[i] = new Term(queries[i], rank * 10 + v);
+      }
+      return terms;
+   }
+
+   @Test public void swapReturnsPreviousVersion() {
+      Autocomplete first = new Autocomplete(version(0));
+      Autocomplete second = new Autocomplete(version(1));
+      ConcurrentAutocomplete index = new ConcurrentAutocomplete(first);
+      Assert.assertSame(first, index.swap(second));
+      Assert.assertSame(second, index.current());
+   }
+
+   @Test public void rebuildPublishesWhenDone() throws Exception {
+      ConcurrentAutocomplete index = new ConcurrentAutocomplete(new Autocomplete(version(0)));
+      ExecutorService executor = Executors.newSingleThreadExecutor();
+      try {
+         Autocomplete built = index.rebuild(version(1), executor).get(10, TimeUnit.SECONDS);
+         Assert.assertSame(built, index.current());
+         Assert.assertEquals(1, index.allMatches("a", 1)[0].weight % 10);
+      }
+      finally {
+         executor.shutdownNow();
+      }
+   }
+
+   @Test public void cachedResultsFollowSwap() {
+      ConcurrentAutocomplete index = new ConcurrentAutocomplete(new Autocomplete(version(0)),
+         new ResultCache(100, 1 << 20));
+      Term[] first = index.allMatches("a", 2);
+      Assert.assertEquals(Arrays.toString(first), Arrays.toString(index.allMatches("a", 2)));
+      Assert.assertEquals(1, index.cache().hits());
+      first[0] = null;
+      Assert.assertNotNull(index.allMatches("a", 2)[0]);
+
+      index.swap(new Autocomplete(version(1)));
+      Assert.assertEquals(Arrays.toString(new Autocomplete(version(1)).allMatches("a", 2)),
+         Arrays.toString(index.allMatches("a", 2)));
+      Assert.assertEquals(1, index.cache().size());
+   }
+
+   @Test public void readersAlwaysSeeOneWholeVersion() throws Exception {
+      assertReadersSeeWholeVersions(null);
+   }
+
+   @Test public void cachedReadersAlwaysSeeOneWholeVersion() throws Exception {
+      assertReadersSeeWholeVersions(new ResultCache(100, 1 << 20));
+   }
+
+   /**
+    * Runs readers against the index while a writer swaps versions, and
+    * asserts that every result matches one version exactly.
+    */
+   private static void assertReadersSeeWholeVersions(ResultCache cache) throws Exception {
+      Autocomplete[] versions = new Autocomplete[VERSIONS];
+      String[][] expected = new String[VERSIONS][PREFIXES.length];
+      for (int v = 0; v < VERSIONS; v++) {
+         versions[v] = new Autocomplete(version(v));
+         for (int p = 0; p < PREFIXES.length; p++) {
+            expected[v][p] = Arrays.toString(versions[v].allMatches(PREFIXES[p]));
+         }
+      }
+
+      ConcurrentAutocomplete index = new ConcurrentAutocomplete(versions[0], cache);
+      AtomicBoolean running = new AtomicBoolean(true);
+      CountDownLatch start = new CountDownLatch(1);
+      ExecutorService pool = Executors.newFixedThreadPool(READERS + 1);
+      List<Future<String>> readers = new ArrayList<Future<String>>();
+      try {
+         for (int r = 0; r < READERS; r++) {
+            readers.add(pool.submit(() -> {
+               start.await();
+               int queries = 0;
+               while (running.get() || queries < 1000) {
+                  int p = queries++ % PREFIXES.length;
+                  Term[] result = index.allMatches(PREFIXES[p]);
+                  int v = (int) (result[0].weight % 10);
+                  String actual = Arrays.toString(result);
+                  if (!expected[v][p].equals(actual)) {
+                     return "version " + v + ", prefix " + PREFIXES[p] + ": " + actual;
+                  }
+               }
+               return null;
+            }));
+         }
+         Future<?> writer = pool.submit(() -> {
+            start.await();
+            for (int i = 1; i <= 20_000; i++) {
+               index.swap(versions[i % VERSIONS]);
+            }
+            running.set(false);
+            return null;
+         });
+
+         start.countDown();
+         writer.get(60, TimeUnit.SECONDS);
+         for (Future<String> reader : readers) {
+            Assert.assertNull(reader.get(60, TimeUnit.SECONDS));
+         }
+      }
+      finally {
+         running.set(false);
+         pool.shutdownNow();
+      }
+   }
+}
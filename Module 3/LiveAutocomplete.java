@@ -0,0 +1,367 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Autocomplete index that accepts updates while it is being queried.
+ *
+ * The index is kept in layers, like a log-structured merge tree: an
+ * immutable Autocomplete base, plus a small sorted delta of upserted
+ * weights and removal markers. Queries merge the delta over the base.
+ * Compaction folds the delta into a fresh base; while it runs, new
+ * updates go to a second delta so that neither readers nor writers wait
+ * for it.
+ *
+ */
+public class LiveAutocomplete implements AutoCloseable {
+
+   // delta value that marks a query as removed
+   private static final long REMOVED = -1;
+
+   private final Object writeLock = new Object();
+   private final Object compactLock = new Object();
+   private volatile Layers layers;
+   private volatile long version;
+   private volatile ResultCache cache;
+   private ScheduledExecutorService compactor;
+
+   /**
+    * Initializes a live index from the given array of terms. This method
+    * throws a NullPointerException if terms is null.
+    */
+   public LiveAutocomplete(Term[] terms) {
+      this(new Autocomplete(terms));
+   }
+
+   /**
+    * Initializes a live index on top of an existing index, which is used
+    * as is until the first compaction. This method throws a
+    * NullPointerException if base is null.
+    */
+   public LiveAutocomplete(Autocomplete base) {
+      if (base == null) {
+         throw new NullPointerException();
+      }
+      layers = new Layers(base, emptyDelta(), emptyDelta());
+   }
+
+   /**
+    * Adds the given term, or replaces the weight of every existing term
+    * with the same query. This method throws a NullPointerException if
+    * term is null.
+    */
+   public void upsert(Term term) {
+      if (term == null) {
+         throw new NullPointerException();
+      }
+      synchronized (writeLock) {
+         layers.active.put(term.query, term.weight);
+         version++;
+      }
+   }
+
+   /**
+    * Removes every term with the given query. This method throws a
+    * NullPointerException if query is null.
+    */
+   public void remove(String query) {
+      if (query == null) {
+         throw new NullPointerException();
+      }
+      synchronized (writeLock) {
+         layers.active.put(query, REMOVED);
+         version++;
+      }
+   }
+
+   /**
+    * Caches results in the given cache from now on, or stops caching if
+    * it is null. Every upsert and remove invalidates cached results.
+    */
+   public void setCache(ResultCache cache) {
+      this.cache = cache;
+   }
+
+   /** Returns the result cache, or null if results are not cached. */
+   public ResultCache cache() {
+      return cache;
+   }
+
+   /** Returns the number of pending updates not yet compacted into the base. */
+   public int pendingUpdates() {
+      Layers current = layers;
+      return current.frozen.size() + current.active.size();
+   }
+
+   /**
+    * Returns all terms that start with the given prefix, in descending
+    * order of weight. This method throws a NullPointerException if prefix
+    * is null, and an IllegalArgumentException if prefix is empty.
+    */
+   public Term[] allMatches(String prefix) {
+      return allMatches(prefix, Integer.MAX_VALUE);
+   }
+
+   /**
+    * Returns the k heaviest terms that start with the given prefix, in
+    * descending order of weight. This method throws a NullPointerException
+    * if prefix is null, and an IllegalArgumentException if prefix is empty
+    * or k is negative.
+    */
+   public Term[] allMatches(String prefix, int k) {
+      if (k < 0) {
+         throw new IllegalArgumentException();
+      }
+
+      ResultCache results = cache;
+      if (results == null) {
+         return matches(prefix, k);
+      }
+
+      // read the version first: a result computed while an update lands
+      // is then tagged as older than that update and never served after it
+      long v = version;
+      Term[] result = results.get(prefix, k, v);
+      if (result == null) {
+         result = matches(prefix, k);
+         results.put(prefix, k, v, result);
+      }
+      return result.clone();
+   }
+
+   private Term[] matches(String prefix, int k) {
+      Layers current = layers;
+      int[] range = current.base.rangeOf(prefix);
+      List<Term> updated = current.updatedMatches(prefix);
+      TermStore store = current.base.store();
+      PrimitiveIterator.OfInt fromBase = null;
+      if (range[0] != -1) {
+         fromBase = current.base.weightIndex().descending(range[0], range[1]);
+      }
+
+      List<Term> matches = new ArrayList<Term>();
+      int next = 0;
+      Term baseTerm = nextBaseTerm(fromBase, store, current);
+      while (matches.size() < k && (baseTerm != null || next < updated.size())) {
+         if (baseTerm == null || (next < updated.size()
+               && current.byWeight.compare(updated.get(next), baseTerm) <= 0)) {
+            matches.add(updated.get(next++));
+         }
+         else {
+            matches.add(baseTerm);
+            baseTerm = nextBaseTerm(fromBase, store, current);
+         }
+      }
+      return matches.toArray(new Term[0]);
+   }
+
+   /** Returns the next base term, heaviest first, that the deltas do not override. */
+   private static Term nextBaseTerm(PrimitiveIterator.OfInt fromBase, TermStore store, Layers current) {
+      while (fromBase != null && fromBase.hasNext()) {
+         int i = fromBase.nextInt();
+         String query = store.query(i);
+         if (!current.overrides(query)) {
+            return new Term(query, store.weight(i));
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Folds all pending updates into a new base index. Queries and updates
+    * proceed while this runs; updates made meanwhile stay pending until
+    * the next compaction.
+    */
+   public void compact() {
+      synchronized (compactLock) {
+         Layers frozen;
+         synchronized (writeLock) {
+            Layers current = layers;
+            if (current.active.isEmpty()) {
+               return;
+            }
+            frozen = new Layers(current.base, current.active, emptyDelta());
+            layers = frozen;
+         }
+
+         Autocomplete merged = merge(frozen.base.store(), frozen.frozen);
+
+         synchronized (writeLock) {
+            layers = new Layers(merged, emptyDelta(), layers.active);
+         }
+      }
+   }
+
+   /**
+    * Starts compacting on a background thread every period, until close
+    * is called. This method throws an IllegalArgumentException if period
+    * is not positive, and an IllegalStateException if background
+    * compaction has already been started.
+    */
+   public synchronized void startCompaction(long period, TimeUnit unit) {
+      if (period <= 0) {
+         throw new IllegalArgumentException();
+      }
+      if (compactor != null) {
+         throw new IllegalStateException();
+      }
+      compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+         Thread t = new Thread(r, "autocomplete-compactor");
+         t.setDaemon(true);
+         return t;
+      });
+      compactor.scheduleWithFixedDelay(this::compact, period, period, unit);
+   }
+
+   /** Stops background compaction, if it was started. */
+   @Override
+   public synchronized void close() {
+      if (compactor != null) {
+         compactor.shutdownNow();
+         compactor = null;
+      }
+   }
+
+   /**
+    * Merges the sorted base store with the sorted delta into one sorted
+    * array, dropping overridden and removed terms, and indexes it. A
+    * normalized base is ordered by key rather than by query, so its merge
+    * re-sorts instead.
+    */
+   private static Autocomplete merge(TermStore base, NavigableMap<String, Long> delta) {
+      if (base.isNormalized()) {
+         List<Term> merged = new ArrayList<Term>(base.size() + delta.size());
+         for (int i = 0; i < base.size(); i++) {
+            if (!delta.containsKey(base.query(i))) {
+               merged.add(base.term(i));
+            }
+         }
+         for (Map.Entry<String, Long> update : delta.entrySet()) {
+            if (update.getValue() != REMOVED) {
+               merged.add(new Term(update.getKey(), update.getValue()));
+            }
+         }
+         return new Autocomplete(TermStore.normalized(merged.toArray(new Term[0])));
+      }
+
+      List<Term> merged = new ArrayList<Term>(base.size() + delta.size());
+      int i = 0;
+      for (Map.Entry<String, Long> update : delta.entrySet()) {
+         String query = update.getKey();
+         while (i < base.size() && base.comparePrefix(query, i) > 0) {
+            merged.add(base.term(i++));
+         }
+         while (i < base.size() && base.query(i).equals(query)) {
+            i++;
+         }
+         if (update.getValue() != REMOVED) {
+            merged.add(new Term(query, update.getValue()));
+         }
+      }
+      while (i < base.size()) {
+         merged.add(base.term(i++));
+      }
+      return new Autocomplete(TermStore.fromSorted(merged.toArray(new Term[0])));
+   }
+
+   private static ConcurrentSkipListMap<String, Long> emptyDelta() {
+      return new ConcurrentSkipListMap<String, Long>();
+   }
+
+   // descending weight, then ascending query, the order a plain base yields
+   private static final Comparator<Term> BY_WEIGHT =
+      new Comparator<Term>() {
+         public int compare(Term a, Term b) {
+            int cmp = Long.compare(b.weight, a.weight);
+            if (cmp == 0) {
+               cmp = a.query.compareTo(b.query);
+            }
+            return cmp;
+         }
+      };
+
+   // descending weight, then ascending key and query, the order a
+   // normalized base yields
+   private static final Comparator<Term> BY_WEIGHT_THEN_KEY =
+      new Comparator<Term>() {
+         public int compare(Term a, Term b) {
+            int cmp = Long.compare(b.weight, a.weight);
+            if (cmp == 0) {
+               cmp = TermStore.normalize(a.query).compareTo(TermStore.normalize(b.query));
+            }
+            if (cmp == 0) {
+               cmp = a.query.compareTo(b.query);
+            }
+            return cmp;
+         }
+      };
+
+   /**
+    * One consistent view of the index: the base, the delta being
+    * compacted (if any) and the delta taking new updates. Only the active
+    * delta ever changes.
+    */
+   private static class Layers {
+      final Autocomplete base;
+      final ConcurrentSkipListMap<String, Long> frozen;
+      final ConcurrentSkipListMap<String, Long> active;
+      final Comparator<Term> byWeight;
+
+      Layers(Autocomplete base, ConcurrentSkipListMap<String, Long> frozen,
+            ConcurrentSkipListMap<String, Long> active) {
+         this.base = base;
+         this.frozen = frozen;
+         this.active = active;
+         this.byWeight = base.store().isNormalized() ? BY_WEIGHT_THEN_KEY : BY_WEIGHT;
+      }
+
+      /** Returns true if either delta holds an update for the query. */
+      boolean overrides(String query) {
+         return active.containsKey(query) || frozen.containsKey(query);
+      }
+
+      /** Returns the live updated terms that start with prefix, heaviest first. */
+      List<Term> updatedMatches(String prefix) {
+         List<Term> updated = new ArrayList<Term>();
+         addMatches(updated, active, prefix, null);
+         addMatches(updated, frozen, prefix, active);
+         updated.sort(byWeight);
+         return updated;
+      }
+
+      /**
+       * Adds the non-removed entries of delta that match the prefix and are
+       * not shadowed by newer. Against a normalized base the match ignores
+       * case and accents like the base does, so the whole delta is scanned.
+       */
+      private void addMatches(List<Term> updated, NavigableMap<String, Long> delta,
+            String prefix, NavigableMap<String, Long> newer) {
+         boolean normalized = base.store().isNormalized();
+         String key = normalized ? TermStore.normalize(prefix) : prefix;
+         Iterable<Map.Entry<String, Long>> entries =
+            normalized ? delta.entrySet() : delta.tailMap(prefix).entrySet();
+         for (Map.Entry<String, Long> e : entries) {
+            String query = e.getKey();
+            boolean matches = normalized ? TermStore.normalize(query).startsWith(key)
+               : query.startsWith(prefix);
+            if (!matches) {
+               if (normalized) {
+                  continue;
+               }
+               break;
+            }
+            if (e.getValue() != REMOVED && (newer == null || !newer.containsKey(query))) {
+               updated.add(new Term(query, e.getValue()));
+            }
+         }
+      }
+   }
+
+}
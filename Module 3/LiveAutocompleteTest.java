@@ -0,0 +1,223 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for LiveAutocomplete: after any mix of upserts, removals and
+ * compactions, matches agree with a scan of a plain map holding the
+ * same updates.
+ */
+public class LiveAutocompleteTest {
+
+   private static final String[] PREFIXES = {"a", "b", "ab", "ba", "abc", "cab", "dddd"};
+
+   private static String randomQuery(Random rng) {
+      return randomQuery(rng, "abcd");
+   }
+
+   /** Returns a random query of one to four of the given letters. */
+   private static String randomQuery(Random rng, String letters) {
+      StringBuilder query = new StringBuilder();
+      int length = 1 + rng.nextInt(4);
+      for (int j = 0; j < length; j++) {
+         query.append(letters.charAt(rng.nextInt(letters.length())));
+      }
+      return query.toString();
+   }
+
+   /**
+    * Returns the k heaviest entries of the model starting with prefix,
+    * ties by ascending query, the order LiveAutocomplete returns them in.
+    */
+   private static String scan(Map<String, Long> model, String prefix, int k) {
+      List<Term> matches = new ArrayList<Term>();
+      for (Map.Entry<String, Long> e : model.entrySet()) {
+         if (e.getKey().startsWith(prefix)) {
+            matches.add(new Term(e.getKey(), e.getValue()));
+         }
+      }
+      Collections.sort(matches, (a, b) -> (a.weight != b.weight)
+         ? Long.compare(b.weight, a.weight) : a.query.compareTo(b.query));
+      return matches.subList(0, Math.min(k, matches.size())).toString();
+   }
+
+   private static void assertSameAs(Map<String, Long> model, LiveAutocomplete live) {
+      for (String prefix : PREFIXES) {
+         Assert.assertEquals(prefix, scan(model, prefix, Integer.MAX_VALUE),
+            Arrays.toString(live.allMatches(prefix)));
+         Assert.assertEquals(prefix, scan(model, prefix, 3), Arrays.toString(live.allMatches(prefix, 3)));
+      }
+   }
+
+   private static Term[] terms(Map<String, Long> model) {
+      List<Term> terms = new ArrayList<Term>();
+      for (Map.Entry<String, Long> e : model.entrySet()) {
+         terms.add(new Term(e.getKey(), e.getValue()));
+      }
+      return terms.toArray(new Term[0]);
+   }
+
+   @Test public void randomUpdatesAgreeWithMap() {
+      Random rng = new Random(2210);
+      Map<String, Long> model = new HashMap<String, Long>();
+      for (int i = 0; i < 200; i++) {
+         model.put(randomQuery(rng), (long) rng.nextInt(50));
+      }
+      LiveAutocomplete live = new LiveAutocomplete(terms(model));
+      for (int op = 0; op < 2000; op++) {
+         String query = randomQuery(rng);
+         int kind = rng.nextInt(20);
+         if (kind < 12) {
+            long weight = rng.nextInt(50);
+            live.upsert(new Term(query, weight));
+            model.put(query, weight);
+         }
+         else if (kind < 19) {
+            live.remove(query);
+            model.remove(query);
+         }
+         else {
+            live.compact();
+            Assert.assertEquals(0, live.pendingUpdates());
+         }
+         if (op % 50 == 0) {
+            assertSameAs(model, live);
+         }
+      }
+      assertSameAs(model, live);
+      live.compact();
+      assertSameAs(model, live);
+   }
+
+   @Test public void upsertAddsAndReweighs() {
+      LiveAutocomplete live = new LiveAutocomplete(new Term[] {new Term("ab", 5), new Term("abc", 3)});
+      live.upsert(new Term("abd", 4));
+      live.upsert(new Term("abc", 9));
+      Assert.assertEquals("[abc\t9, ab\t5, abd\t4]", Arrays.toString(live.allMatches("a")));
+      Assert.assertEquals("[abc\t9, ab\t5]", Arrays.toString(live.allMatches("a", 2)));
+      Assert.assertEquals(0, live.allMatches("a", 0).length);
+   }
+
+   @Test public void removeThenReAdd() {
+      LiveAutocomplete live = new LiveAutocomplete(new Term[] {new Term("ab", 5), new Term("abc", 3)});
+      live.remove("ab");
+      live.remove("zz");
+      Assert.assertEquals("[abc\t3]", Arrays.toString(live.allMatches("a")));
+      live.upsert(new Term("ab", 1));
+      Assert.assertEquals("[abc\t3, ab\t1]", Arrays.toString(live.allMatches("a")));
+      live.compact();
+      live.remove("ab");
+      Assert.assertEquals("[abc\t3]", Arrays.toString(live.allMatches("a")));
+      live.compact();
+      Assert.assertEquals("[abc\t3]", Arrays.toString(live.allMatches("a")));
+      live.upsert(new Term("ab", 7));
+      Assert.assertEquals("[ab\t7, abc\t3]", Arrays.toString(live.allMatches("a")));
+   }
+
+   @Test public void compactionFoldsPendingUpdates() {
+      LiveAutocomplete live = new LiveAutocomplete(new Term[] {new Term("ab", 5)});
+      Assert.assertEquals(0, live.pendingUpdates());
+      live.upsert(new Term("abc", 3));
+      live.upsert(new Term("abc", 4));
+      live.remove("ab");
+      Assert.assertEquals(2, live.pendingUpdates());
+      live.compact();
+      Assert.assertEquals(0, live.pendingUpdates());
+      Assert.assertEquals("[abc\t4]", Arrays.toString(live.allMatches("a")));
+      live.compact();
+      Assert.assertEquals("[abc\t4]", Arrays.toString(live.allMatches("a")));
+   }
+
+   @Test public void backgroundCompactionFoldsPendingUpdates() throws InterruptedException {
+      try (LiveAutocomplete live = new LiveAutocomplete(new Term[] {new Term("ab", 5)})) {
+         live.upsert(new Term("abc", 3));
+         live.startCompaction(10, TimeUnit.MILLISECONDS);
+         for (int i = 0; i < 500 && live.pendingUpdates() > 0; i++) {
+            Thread.sleep(10);
+         }
+         Assert.assertEquals(0, live.pendingUpdates());
+         Assert.assertEquals("[ab\t5, abc\t3]", Arrays.toString(live.allMatches("a")));
+      }
+   }
+
+   @Test(expected = IllegalStateException.class)
+   public void startCompactionOnlyOnce() {
+      try (LiveAutocomplete live = new LiveAutocomplete(new Term[0])) {
+         live.startCompaction(1, TimeUnit.HOURS);
+         live.startCompaction(1, TimeUnit.HOURS);
+      }
+   }
+
+   @Test public void normalizedBaseMatchesUpdatesIgnoringCaseAndAccents() {
+      String epee = "\u00C9p\u00E9e";
+      String eperon = "\u00C9PERON";
+      Term[] terms = {new Term(epee, 5), new Term("epic", 3)};
+      LiveAutocomplete live = new LiveAutocomplete(new Autocomplete(TermStore.normalized(terms)));
+      live.upsert(new Term(eperon, 4));
+      live.upsert(new Term("epic", 6));
+      Assert.assertEquals("[epic\t6, " + epee + "\t5, " + eperon + "\t4]",
+         Arrays.toString(live.allMatches("EP")));
+      live.remove(epee);
+      Assert.assertEquals("[" + eperon + "\t4]", Arrays.toString(live.allMatches("\u00E9pe")));
+      live.compact();
+      Assert.assertEquals("[epic\t6, " + eperon + "\t4]", Arrays.toString(live.allMatches("ep")));
+      live.upsert(new Term(epee, 1));
+      Assert.assertEquals("[" + eperon + "\t4, " + epee + "\t1]",
+         Arrays.toString(live.allMatches("epe")));
+   }
+
+   /** Asserts that the live index answers every prefix exactly as the index does. */
+   private static void assertSameAs(Autocomplete index, LiveAutocomplete live, String[] prefixes) {
+      for (String prefix : prefixes) {
+         Assert.assertEquals(prefix, Arrays.toString(index.allMatches(prefix)),
+            Arrays.toString(live.allMatches(prefix)));
+         Assert.assertEquals(prefix, Arrays.toString(index.allMatches(prefix, 3)),
+            Arrays.toString(live.allMatches(prefix, 3)));
+      }
+   }
+
+   @Test public void tiedWeightsComeOutAsNormalizedBaseGivesThem() {
+      Random rng = new Random(2210);
+      String letters = "aAb\u00E1\u00C1";
+      String[] prefixes = {"a", "A", "\u00E1", "ab", "\u00C1B", "b"};
+      Map<String, Long> model = new HashMap<String, Long>();
+      for (int i = 0; i < 300; i++) {
+         model.put(randomQuery(rng, letters), (long) rng.nextInt(3));
+      }
+      Autocomplete base = new Autocomplete(TermStore.normalized(terms(model)));
+      LiveAutocomplete live = new LiveAutocomplete(base);
+      assertSameAs(base, live, prefixes);
+
+      for (int i = 0; i < 50; i++) {
+         Term term = new Term(randomQuery(rng, letters), rng.nextInt(3));
+         model.put(term.query, term.weight);
+         live.upsert(term);
+      }
+      assertSameAs(new Autocomplete(TermStore.normalized(terms(model))), live, prefixes);
+   }
+
+   @Test public void cachedResultsFollowUpdates() {
+      LiveAutocomplete live = new LiveAutocomplete(new Term[] {new Term("ab", 5)});
+      live.setCache(new ResultCache(10, 1 << 20));
+      Assert.assertEquals("[ab\t5]", Arrays.toString(live.allMatches("a")));
+      Assert.assertEquals("[ab\t5]", Arrays.toString(live.allMatches("a")));
+      Assert.assertEquals(1, live.cache().hits());
+      live.upsert(new Term("abc", 9));
+      Assert.assertEquals("[abc\t9, ab\t5]", Arrays.toString(live.allMatches("a")));
+      live.compact();
+      Assert.assertEquals("[abc\t9, ab\t5]", Arrays.toString(live.allMatches("a")));
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void rejectsEmptyPrefix() {
+      new LiveAutocomplete(new Term[] {new Term("ab", 5)}).allMatches("");
+   }
+}
@@ -0,0 +1,33 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Shard served from an Autocomplete in this process. It stands in for the
+ * client of a remote shard: every call runs on the given executor rather
+ * than the caller's thread and completes a future, as a network call
+ * would, so a coordinator and several local shards in one process behave
+ * like a coordinator and remote nodes.
+ */
+public class LocalShard implements Shard {
+
+   private final Autocomplete index;
+   private final Executor executor;
+
+   /**
+    * Serves the given index on the given executor. This method throws a
+    * NullPointerException if either parameter is null.
+    */
+   public LocalShard(Autocomplete index, Executor executor) {
+      if (index == null || executor == null) {
+         throw new NullPointerException();
+      }
+      this.index = index;
+      this.executor = executor;
+   }
+
+   @Override
+   public CompletableFuture<Term[]> allMatches(String prefix, int k) {
+      return CompletableFuture.supplyAsync(() -> index.allMatches(prefix, k), executor);
+   }
+
+}
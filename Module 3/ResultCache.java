@@ -0,0 +1,179 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded least-recently-used cache of (prefix, k) to top-k results.
+ *
+ * Every entry is tagged with the version of the index it was computed
+ * from. A lookup against a newer version treats an older entry as a miss
+ * and drops it, so changing the index invalidates the cache without any
+ * explicit clearing and without a window in which a stale result that
+ * was still being computed can be served. A lookup from a reader still on
+ * an older version misses too, but leaves the newer entry in place.
+ * Because versions are only meaningful to one index, a cache should not
+ * be shared between indexes.
+ *
+ * The cache is capped both by number of entries and by an estimate of the
+ * bytes its results hold; whichever limit is reached first evicts the
+ * least recently used entries.
+ *
+ */
+public class ResultCache {
+
+   // rough heap cost of one cached entry and of one cached Term, beyond chars
+   private static final int ENTRY_OVERHEAD_BYTES = 96;
+   private static final int TERM_OVERHEAD_BYTES = 64;
+
+   private final int maxEntries;
+   private final long maxBytes;
+   private final LinkedHashMap<Key, Entry> entries;
+   private long bytes;
+
+   private final AtomicLong hits = new AtomicLong();
+   private final AtomicLong misses = new AtomicLong();
+   private final AtomicLong evictions = new AtomicLong();
+
+   /**
+    * Creates an empty cache holding at most maxEntries results and about
+    * maxBytes bytes of results. This method throws an
+    * IllegalArgumentException if either limit is not positive.
+    */
+   public ResultCache(int maxEntries, long maxBytes) {
+      if (maxEntries <= 0 || maxBytes <= 0) {
+         throw new IllegalArgumentException();
+      }
+      this.maxEntries = maxEntries;
+      this.maxBytes = maxBytes;
+      this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+   }
+
+   /**
+    * Returns the cached result for the prefix and k if it was computed
+    * from the given version, or null otherwise. An entry from an older
+    * version is dropped; one from a newer version is kept. The returned
+    * array is shared with the cache and must not be modified.
+    */
+   public synchronized Term[] get(String prefix, int k, long version) {
+      Key key = new Key(prefix, k);
+      Entry entry = entries.get(key);
+      if (entry != null && entry.version < version) {
+         remove(key, entry);
+         entry = null;
+      }
+      if (entry == null || entry.version != version) {
+         misses.incrementAndGet();
+         return null;
+      }
+      hits.incrementAndGet();
+      return entry.result;
+   }
+
+   /** Caches the result for the prefix and k, computed from the given version. */
+   public synchronized void put(String prefix, int k, long version, Term[] result) {
+      Key key = new Key(prefix, k);
+      Entry entry = new Entry(version, result, sizeOf(prefix, result));
+      if (entry.bytes > maxBytes) {
+         return;
+      }
+      Entry old = entries.get(key);
+      if (old != null) {
+         if (old.version > version) {
+            return;
+         }
+         remove(key, old);
+      }
+      entries.put(key, entry);
+      bytes += entry.bytes;
+
+      Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+      while (entries.size() > maxEntries || bytes > maxBytes) {
+         Map.Entry<Key, Entry> e = eldest.next();
+         bytes -= e.getValue().bytes;
+         eldest.remove();
+         evictions.incrementAndGet();
+      }
+   }
+
+   /** Removes every entry. */
+   public synchronized void clear() {
+      entries.clear();
+      bytes = 0;
+   }
+
+   /** Returns the number of entries currently cached. */
+   public synchronized int size() {
+      return entries.size();
+   }
+
+   /** Returns the estimated bytes held by the cached results. */
+   public synchronized long bytes() {
+      return bytes;
+   }
+
+   /** Returns the number of lookups that found a current result. */
+   public long hits() {
+      return hits.get();
+   }
+
+   /** Returns the number of lookups that found nothing or a stale result. */
+   public long misses() {
+      return misses.get();
+   }
+
+   /** Returns the number of entries evicted to stay within the limits. */
+   public long evictions() {
+      return evictions.get();
+   }
+
+   private void remove(Key key, Entry entry) {
+      entries.remove(key);
+      bytes -= entry.bytes;
+   }
+
+   private static long sizeOf(String prefix, Term[] result) {
+      long size = ENTRY_OVERHEAD_BYTES + 2L * prefix.length() + 8L * result.length;
+      for (Term term : result) {
+         size += TERM_OVERHEAD_BYTES + 2L * term.query.length();
+      }
+      return size;
+   }
+
+   private static class Key {
+      final String prefix;
+      final int k;
+
+      Key(String prefix, int k) {
+         this.prefix = prefix;
+         this.k = k;
+      }
+
+      @Override
+      public boolean equals(Object obj) {
+         if (!(obj instanceof Key)) {
+            return false;
+         }
+         Key other = (Key) obj;
+         return k == other.k && prefix.equals(other.prefix);
+      }
+
+      @Override
+      public int hashCode() {
+         return 31 * prefix.hashCode() + k;
+      }
+   }
+
+   private static class Entry {
+      final long version;
+      final Term[] result;
+      final long bytes;
+
+      Entry(long version, Term[] result, long bytes) {
+         this.version = version;
+         this.result = result;
+         this.bytes = bytes;
+      }
+   }
+
+}
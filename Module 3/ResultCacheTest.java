@@ -0,0 +1,80 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for ResultCache: LRU eviction, the two size limits, version-based
+ * invalidation and the counters.
+ */
+public class ResultCacheTest {
+
+   private static Term[] result(String... queries) {
+      Term[] terms = new Term[queries.length];
+      for (int i = 0; i < queries.length; i++) {
+         terms[i] = new Term(queries[i], queries.length - i);
+      }
+      return terms;
+   }
+
+   @Test public void hitReturnsCachedResult() {
+      ResultCache cache = new ResultCache(10, 1 << 20);
+      Term[] result = result("ab", "abc");
+      cache.put("ab", 5, 0, result);
+      Assert.assertSame(result, cache.get("ab", 5, 0));
+      Assert.assertNull(cache.get("ab", 6, 0));
+      Assert.assertEquals(1, cache.hits());
+      Assert.assertEquals(1, cache.misses());
+   }
+
+   @Test public void newerVersionInvalidates() {
+      ResultCache cache = new ResultCache(10, 1 << 20);
+      cache.put("ab", 5, 0, result("ab"));
+      Assert.assertNull(cache.get("ab", 5, 1));
+      Assert.assertEquals(0, cache.size());
+      Assert.assertEquals(0, cache.bytes());
+   }
+
+   @Test public void olderReaderDoesNotEvictNewerEntry() {
+      ResultCache cache = new ResultCache(10, 1 << 20);
+      Term[] newer = result("ab");
+      cache.put("ab", 5, 2, newer);
+      Assert.assertNull(cache.get("ab", 5, 1));
+      Assert.assertEquals(1, cache.size());
+      Assert.assertSame(newer, cache.get("ab", 5, 2));
+      Assert.assertEquals(1, cache.hits());
+      Assert.assertEquals(1, cache.misses());
+   }
+
+   @Test public void olderResultDoesNotReplaceNewer() {
+      ResultCache cache = new ResultCache(10, 1 << 20);
+      Term[] newer = result("ab");
+      cache.put("ab", 5, 2, newer);
+      cache.put("ab", 5, 1, result("abc"));
+      Assert.assertSame(newer, cache.get("ab", 5, 2));
+   }
+
+   @Test public void evictsLeastRecentlyUsedEntry() {
+      ResultCache cache = new ResultCache(2, 1 << 20);
+      cache.put("a", 5, 0, result("a"));
+      cache.put("b", 5, 0, result("b"));
+      cache.get("a", 5, 0);
+      cache.put("c", 5, 0, result("c"));
+      Assert.assertNotNull(cache.get("a", 5, 0));
+      Assert.assertNull(cache.get("b", 5, 0));
+      Assert.assertNotNull(cache.get("c", 5, 0));
+      Assert.assertEquals(1, cache.evictions());
+   }
+
+   @Test public void staysWithinByteLimit() {
+      ResultCache cache = new ResultCache(1000, 2000);
+      for (int i = 0; i < 100; i++) {
+         cache.put("p" + i, 5, 0, result("p" + i + "xxxxxxxxxx", "p" + i + "yyyyyyyyyy"));
+         Assert.assertTrue(cache.bytes() <= 2000);
+      }
+      Assert.assertTrue(cache.evictions() > 0);
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void rejectsNonPositiveLimits() {
+      new ResultCache(0, 100);
+   }
+}
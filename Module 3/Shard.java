@@ -0,0 +1,17 @@
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One partition of a ShardedAutocomplete: an index over a contiguous,
+ * lexicographic range of the terms, usually served by another node.
+ * Calls are asynchronous so that a coordinator can query several shards
+ * at once.
+ */
+public interface Shard {
+
+   /**
+    * Returns a future for the k heaviest terms of this shard that start
+    * with the given prefix, in descending order of weight.
+    */
+   CompletableFuture<Term[]> allMatches(String prefix, int k);
+
+}
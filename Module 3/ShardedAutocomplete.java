@@ -0,0 +1,180 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Autocomplete over terms partitioned into shards by lexicographic range.
+ *
+ * Shard i holds the queries from its lower bound up to, but not
+ * including, the lower bound of shard i + 1, so the terms matching a
+ * prefix lie in a run of neighbouring shards, and usually in just one.
+ * A query is sent only to those shards, all at once; each answers with
+ * its own top k, and the coordinator merges these, heaviest first,
+ * through a heap until it has k terms. Terms of equal weight come out in
+ * shard order, and so in the order a single index over all the terms
+ * would return them.
+ *
+ */
+public class ShardedAutocomplete {
+
+   private final String[] lowerBounds;
+   private final Shard[] shards;
+
+   /**
+    * Initializes a coordinator over the given shards, where shard i holds
+    * the queries at or above lowerBounds[i] and below lowerBounds[i + 1].
+    * The first bound is ignored, as the first shard holds every query
+    * below the second bound. This method throws a NullPointerException if
+    * either parameter or any of their elements is null, and an
+    * IllegalArgumentException if they differ in length, are empty, or the
+    * bounds are not strictly ascending.
+    */
+   public ShardedAutocomplete(String[] lowerBounds, Shard[] shards) {
+      if (lowerBounds == null || shards == null) {
+         throw new NullPointerException();
+      }
+      if (lowerBounds.length != shards.length || shards.length == 0) {
+         throw new IllegalArgumentException();
+      }
+      for (int i = 0; i < shards.length; i++) {
+         if (lowerBounds[i] == null || shards[i] == null) {
+            throw new NullPointerException();
+         }
+         if (i > 1 && lowerBounds[i - 1].compareTo(lowerBounds[i]) >= 0) {
+            throw new IllegalArgumentException();
+         }
+      }
+      this.lowerBounds = lowerBounds.clone();
+      this.lowerBounds[0] = "";
+      this.shards = shards.clone();
+   }
+
+   /**
+    * Sorts the given terms, splits them into at most count ranges of
+    * about the same size, and serves each range from a LocalShard on the
+    * given executor. Terms with the same query always land in the same
+    * shard. This method throws a NullPointerException if terms or
+    * executor is null, and an IllegalArgumentException if count is not
+    * positive.
+    */
+   public static ShardedAutocomplete partition(Term[] terms, int count, Executor executor) {
+      if (terms == null || executor == null) {
+         throw new NullPointerException();
+      }
+      if (count <= 0) {
+         throw new IllegalArgumentException();
+      }
+
+      Term[] sorted = terms.clone();
+      Arrays.sort(sorted);
+      List<String> bounds = new ArrayList<String>();
+      List<Shard> shards = new ArrayList<Shard>();
+      int from = 0;
+      for (int i = 1; i <= count; i++) {
+         int to = Math.max(from, (int) ((long) sorted.length * i / count));
+         while (to > from && to < sorted.length && sorted[to].query.equals(sorted[to - 1].query)) {
+            to++;
+         }
+         if (to == from && !(i == count && shards.isEmpty())) {
+            continue;
+         }
+         Term[] slice = Arrays.copyOfRange(sorted, from, to);
+         bounds.add((slice.length == 0) ? "" : slice[0].query);
+         shards.add(new LocalShard(new Autocomplete(TermStore.fromSorted(slice)), executor));
+         from = to;
+      }
+      return new ShardedAutocomplete(bounds.toArray(new String[0]), shards.toArray(new Shard[0]));
+   }
+
+   /** Returns the number of shards. */
+   public int shardCount() {
+      return shards.length;
+   }
+
+   /**
+    * Returns the k heaviest terms that start with the given prefix, in
+    * descending order of weight, gathered from every shard that can hold
+    * them. This method throws a NullPointerException if prefix is null,
+    * and an IllegalArgumentException if prefix is empty or k is negative.
+    * A shard that fails makes this method throw a CompletionException
+    * with the shard's failure as its cause.
+    */
+   public Term[] allMatches(String prefix, int k) {
+      if (prefix == null) {
+         throw new NullPointerException();
+      }
+      if (prefix.length() == 0 || k < 0) {
+         throw new IllegalArgumentException();
+      }
+
+      int first = firstShardOf(prefix);
+      int last = lastShardOf(prefix, first);
+      List<CompletableFuture<Term[]>> replies = new ArrayList<CompletableFuture<Term[]>>();
+      for (int i = first; i <= last; i++) {
+         replies.add(shards[i].allMatches(prefix, k));
+      }
+
+      PriorityQueue<Reply> heads = new PriorityQueue<Reply>();
+      for (int i = 0; i < replies.size(); i++) {
+         Term[] terms = replies.get(i).join();
+         if (terms.length > 0) {
+            heads.add(new Reply(i, terms));
+         }
+      }
+
+      List<Term> merged = new ArrayList<Term>();
+      while (merged.size() < k && !heads.isEmpty()) {
+         Reply next = heads.poll();
+         merged.add(next.terms[next.position++]);
+         if (next.position < next.terms.length) {
+            heads.add(next);
+         }
+      }
+      return merged.toArray(new Term[0]);
+   }
+
+   /** Returns the last shard whose lower bound is at or below the prefix. */
+   private int firstShardOf(String prefix) {
+      int i = Arrays.binarySearch(lowerBounds, 1, lowerBounds.length, prefix);
+      return (i >= 0) ? i : -i - 2;
+   }
+
+   /**
+    * Returns the last shard, from first on, whose lower bound is not past
+    * every query starting with the prefix.
+    */
+   private int lastShardOf(String prefix, int first) {
+      int last = first;
+      while (last + 1 < shards.length && lowerBounds[last + 1].startsWith(prefix)) {
+         last++;
+      }
+      return last;
+   }
+
+   /**
+    * One shard's reply, positioned on its next unmerged term. Replies
+    * order by that term's weight, heaviest first, then by shard.
+    */
+   private static class Reply implements Comparable<Reply> {
+      final int shard;
+      final Term[] terms;
+      int position;
+
+      Reply(int shard, Term[] terms) {
+         this.shard = shard;
+         this.terms = terms;
+      }
+
+      public int compareTo(Reply other) {
+         int cmp = Long.compare(other.terms[other.position].weight, terms[position].weight);
+         if (cmp == 0) {
+            cmp = Integer.compare(shard, other.shard);
+         }
+         return cmp;
+      }
+   }
+
+}
@@ -0,0 +1,129 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for ShardedAutocomplete, with every shard a LocalShard in this
+ * process: results match a single unsharded index, prefixes only reach
+ * the shards that can hold their matches, and failures surface.
+ */
+public class ShardedAutocompleteTest {
+
+   private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+   @After public void shutDown() {
+      executor.shutdownNow();
+   }
+
+   private static Term[] randomTerms(Random rng) {
+      Term[] terms = new Term[2000];
+      for (int i = 0; i < terms.length; i++) {
+         StringBuilder query = new StringBuilder();
+         int length = 1 + rng.nextInt(5);
+         for (int j = 0; j < length; j++) {
+            query.append((char) ('a' + rng.nextInt(4)));
+         }
+         terms[i] = new Term(query.toString(), rng.nextInt(1000));
+      }
+      return terms;
+   }
+
+   @Test public void matchesUnshardedIndex() {
+      Random rng = new Random(2210);
+      Term[] terms = randomTerms(rng);
+      Autocomplete whole = new Autocomplete(terms);
+      String[] prefixes = {"a", "ab", "abc", "b", "bd", "c", "cc", "d", "dddd", "e"};
+      for (int count = 1; count <= 7; count++) {
+         ShardedAutocomplete sharded = ShardedAutocomplete.partition(terms, count, executor);
+         for (String prefix : prefixes) {
+            for (int k : new int[] {0, 1, 10, terms.length}) {
+               Assert.assertEquals(prefix + " k=" + k + " shards=" + count,
+                  Arrays.toString(whole.allMatches(prefix, k)),
+                  Arrays.toString(sharded.allMatches(prefix, k)));
+            }
+         }
+      }
+   }
+
+   @Test public void tiedWeightsComeOutAsUnshardedIndexGivesThem() {
+      Term[] terms = {new Term("ad", 5), new Term("b", 1), new Term("ab", 5), new Term("ac", 5),
+         new Term("aa", 5)};
+      Autocomplete whole = new Autocomplete(terms);
+      ShardedAutocomplete sharded = ShardedAutocomplete.partition(terms, 3, executor);
+      Assert.assertEquals(3, sharded.shardCount());
+      Assert.assertEquals("[aa\t5, ab\t5]", Arrays.toString(sharded.allMatches("a", 2)));
+      for (int k = 0; k <= terms.length; k++) {
+         Assert.assertEquals("k=" + k, Arrays.toString(whole.allMatches("a", k)),
+            Arrays.toString(sharded.allMatches("a", k)));
+      }
+   }
+
+   @Test public void duplicateQueriesStayInOneShard() {
+      Term[] terms = new Term[100];
+      for (int i = 0; i < terms.length; i++) {
+         terms[i] = new Term((i < 60) ? "same" : "other" + i, i);
+      }
+      ShardedAutocomplete sharded = ShardedAutocomplete.partition(terms, 10, executor);
+      Assert.assertEquals(60, sharded.allMatches("same", 100).length);
+      Assert.assertEquals(59, sharded.allMatches("same", 1)[0].weight);
+   }
+
+   @Test public void emptyTermsGiveOneEmptyShard() {
+      ShardedAutocomplete sharded = ShardedAutocomplete.partition(new Term[0], 3, executor);
+      Assert.assertEquals(1, sharded.shardCount());
+      Assert.assertEquals(0, sharded.allMatches("a", 5).length);
+   }
+
+   @Test public void prefixReachesOnlyShardsThatCanMatch() {
+      AtomicInteger[] calls = new AtomicInteger[3];
+      Shard[] shards = new Shard[3];
+      String[][] queries = {{"apple", "banana"}, {"bandana", "cherry"}, {"date"}};
+      for (int i = 0; i < shards.length; i++) {
+         AtomicInteger count = calls[i] = new AtomicInteger();
+         Term[] terms = new Term[queries[i].length];
+         for (int j = 0; j < terms.length; j++) {
+            terms[j] = new Term(queries[i][j], j + 1);
+         }
+         LocalShard shard = new LocalShard(new Autocomplete(terms), executor);
+         shards[i] = (prefix, k) -> {
+            count.incrementAndGet();
+            return shard.allMatches(prefix, k);
+         };
+      }
+      ShardedAutocomplete sharded =
+         new ShardedAutocomplete(new String[] {"", "bandana", "date"}, shards);
+
+      Assert.assertEquals(2, sharded.allMatches("ban", 5).length);
+      Assert.assertEquals(1, calls[0].get());
+      Assert.assertEquals(1, calls[1].get());
+      Assert.assertEquals(0, calls[2].get());
+
+      // shard 1 could hold "d" or "dat", which sort before "date"
+      Assert.assertEquals(1, sharded.allMatches("d", 5).length);
+      Assert.assertEquals(1, calls[0].get());
+      Assert.assertEquals(2, calls[1].get());
+      Assert.assertEquals(1, calls[2].get());
+
+      Assert.assertEquals(1, sharded.allMatches("date", 5).length);
+      Assert.assertEquals(1, calls[0].get());
+      Assert.assertEquals(2, calls[1].get());
+      Assert.assertEquals(2, calls[2].get());
+   }
+
+   @Test(expected = java.util.concurrent.CompletionException.class)
+   public void failedShardFailsTheQuery() {
+      Shard failing = (prefix, k) -> {
+         CompletableFuture<Term[]> reply = new CompletableFuture<Term[]>();
+         reply.completeExceptionally(new IllegalStateException("shard down"));
+         return reply;
+      };
+      new ShardedAutocomplete(new String[] {""}, new Shard[] {failing}).allMatches("a", 1);
+   }
+}
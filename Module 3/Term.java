@@ -1,3 +1,4 @@
+import java.util.Arrays;
 import java.util.Comparator;
 
 /**
@@ -8,6 +9,23 @@ public class Term implements Comparable<Term> {
 
    String query;
    long weight;
+   
+   // cache of prefix comparators indexed by length; they are stateless,
+   // so a racing thread creating a duplicate is harmless
+   @SuppressWarnings({"unchecked", "rawtypes"})
+   private static final Comparator<Term>[] PREFIX_ORDERS = new Comparator[64];
+
+   private static final Comparator<Term> BY_DESCENDING_WEIGHT =
+      new Comparator<Term>() {
+         public int compare(Term firstTerm, Term secondTerm) {
+            return Long.compare(secondTerm.weight, firstTerm.weight);
+         }
+      };
+
+   // radix sort digit width, and the size below which a comparison sort wins
+   private static final int RADIX_BITS = 11;
+   private static final int RADIX_THRESHOLD = 256;
+
    /**
     * Initialize a term with the given query and weight.
     * This method throws a NullPointerException if query is null,
@@ -27,38 +45,130 @@ public class Term implements Comparable<Term> {
    }
 
    /**
-    * Compares the two terms in descending order of weight.
+    * Compares the two terms in descending order of weight. The comparator
+    * is shared, so calling this method does not allocate.
     */
    public static Comparator<Term> byDescendingWeightOrder() {
-      return 
-         new Comparator<Term>() {
-            public int compare(Term firstTerm, Term secondTerm) {
-               return Long.compare(secondTerm.weight, firstTerm.weight);
-            }
-         };
+      return BY_DESCENDING_WEIGHT;
+   }
+
+   /**
+    * Sorts the array in descending order of weight, keeping terms of equal
+    * weight in their current order, like a stable sort with
+    * byDescendingWeightOrder. Large arrays are sorted without comparisons:
+    * the weights are copied into a long array alongside their positions,
+    * radix sorted there, and the terms are moved once at the end. Digits
+    * on which all weights agree are skipped. This method throws a
+    * NullPointerException if terms is null.
+    */
+   public static void sortByDescendingWeight(Term[] terms) {
+      int n = terms.length;
+      if (n < RADIX_THRESHOLD) {
+         Arrays.sort(terms, BY_DESCENDING_WEIGHT);
+         return;
+      }
+      
+      // weights are non-negative, so MAX_VALUE - weight is a non-negative
+      // key that ascends as the weight descends
+      long[] keys = new long[n];
+      int[] order = new int[n];
+      long differing = 0;
+      for (int i = 0; i < n; i++) {
+         keys[i] = Long.MAX_VALUE - terms[i].weight;
+         order[i] = i;
+         differing |= keys[i] ^ keys[0];
+      }
+      
+      long[] keysTo = new long[n];
+      int[] orderTo = new int[n];
+      int[] counts = new int[1 << RADIX_BITS];
+      int mask = counts.length - 1;
+      for (int shift = 0; shift < Long.SIZE - 1; shift += RADIX_BITS) {
+         if (((differing >>> shift) & mask) == 0) {
+            continue;
+         }
+         
+         Arrays.fill(counts, 0);
+         for (int i = 0; i < n; i++) {
+            counts[(int) (keys[i] >>> shift) & mask]++;
+         }
+         for (int d = 0, start = 0; d < counts.length; d++) {
+            int count = counts[d];
+            counts[d] = start;
+            start += count;
+         }
+         for (int i = 0; i < n; i++) {
+            int to = counts[(int) (keys[i] >>> shift) & mask]++;
+            keysTo[to] = keys[i];
+            orderTo[to] = order[i];
+         }
+         
+         long[] keysFrom = keys;
+         keys = keysTo;
+         keysTo = keysFrom;
+         int[] orderFrom = order;
+         order = orderTo;
+         orderTo = orderFrom;
+      }
+      
+      Term[] sorted = new Term[n];
+      for (int i = 0; i < n; i++) {
+         sorted[i] = terms[order[i]];
+      }
+      System.arraycopy(sorted, 0, terms, 0, n);
    }
 
    /**
     * Compares the two terms in ascending lexicographic order of query,
     * but using only the first length characters of query. This method
     * throws an IllegalArgumentException if length is less than or equal
-    * to zero.
+    * to zero. Comparators for short lengths are cached, and comparing
+    * never allocates.
     */
    public static Comparator<Term> byPrefixOrder(int length) {
       if (length <= 0) {
          throw new IllegalArgumentException();
       }
       
-      return 
-         new Comparator<Term>() {
-            public int compare(Term firstTerm, Term secondTerm) {
-               String a = firstTerm.query;
-               String b = secondTerm.query;
-               a = a.substring(0, Math.min(length, a.length()));
-               b = b.substring(0, Math.min(length, b.length()));
-               return a.compareTo(b);
+      if (length >= PREFIX_ORDERS.length) {
+         return new PrefixOrder(length);
+      }
+      
+      Comparator<Term> order = PREFIX_ORDERS[length];
+      if (order == null) {
+         order = new PrefixOrder(length);
+         PREFIX_ORDERS[length] = order;
+      }
+      return order;
+   }
+
+   /**
+    * Compares the first length characters of two queries in place,
+    * with the same result as comparing the two substrings.
+    */
+   private static class PrefixOrder implements Comparator<Term> {
+      private final int length;
+   
+      PrefixOrder(int length) {
+         this.length = length;
+      }
+   
+      @Override
+      public int compare(Term firstTerm, Term secondTerm) {
+         String a = firstTerm.query;
+         String b = secondTerm.query;
+         int aLength = Math.min(length, a.length());
+         int bLength = Math.min(length, b.length());
+         int n = Math.min(aLength, bLength);
+         for (int i = 0; i < n; i++) {
+            char c1 = a.charAt(i);
+            char c2 = b.charAt(i);
+            if (c1 != c2) {
+               return c1 - c2;
             }
-         };
+         }
+         return aLength - bLength;
+      }
    }
 
    /**
@@ -0,0 +1,387 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Streams term files into an Autocomplete index. Each line of a term file
+ * holds a weight, a tab and a query; leading spaces before the weight
+ * are ignored, and a first line without a tab (a term count) is skipped.
+ *
+ * The file is read through a FileChannel with one reusable byte buffer.
+ * While the parsed terms fit in the heap budget they are sorted in memory
+ * and become a TermStore directly. Past the budget, sorted runs are
+ * spilled to temporary files and merged straight into a snapshot file,
+ * which is then memory-mapped, so the whole dictionary is never on the
+ * heap at once.
+ *
+ */
+public class TermLoader {
+
+   // rough heap cost of one Term with its String, beyond the chars
+   private static final int TERM_OVERHEAD_BYTES = 80;
+   private static final int BUFFER_BYTES = 1 << 16;
+
+   private final long heapBudget;
+   private final Path tempDirectory;
+
+   /** Creates a loader that may use up to a quarter of the maximum heap. */
+   public TermLoader() {
+      this(Runtime.getRuntime().maxMemory() / 4);
+   }
+
+   /**
+    * Creates a loader that keeps at most heapBudget bytes of parsed terms
+    * in memory. This method throws an IllegalArgumentException if
+    * heapBudget is not positive.
+    */
+   public TermLoader(long heapBudget) {
+      this(heapBudget, null);
+   }
+
+   /**
+    * Creates a loader with the given heap budget that spills sorted runs
+    * to tempDirectory, or to the default temporary directory if it is
+    * null. This method throws an IllegalArgumentException if heapBudget
+    * is not positive.
+    */
+   public TermLoader(long heapBudget, Path tempDirectory) {
+      if (heapBudget <= 0) {
+         throw new IllegalArgumentException();
+      }
+      this.heapBudget = heapBudget;
+      this.tempDirectory = tempDirectory;
+   }
+
+   /**
+    * Reads the given term file and returns an index over its terms. Terms
+    * that do not fit the budget are merged into a temporary snapshot,
+    * which is mapped and then deleted at once; the mapping keeps its
+    * contents until the index is collected. This method throws an
+    * IllegalArgumentException if a line is malformed or has a negative
+    * weight, and an IOException if the file cannot be read.
+    */
+   public Autocomplete load(Path input) throws IOException {
+      Path snapshot = createTemp(".snapshot");
+      try {
+         Autocomplete autocomplete = load(input, snapshot);
+         return (autocomplete != null) ? autocomplete : Autocomplete.open(snapshot);
+      }
+      finally {
+         try {
+            Files.deleteIfExists(snapshot);
+         }
+         catch (IOException e) {
+            // some platforms refuse to delete a mapped file
+            snapshot.toFile().deleteOnExit();
+         }
+      }
+   }
+
+   /**
+    * Reads the given term file and writes the sorted index to a snapshot
+    * file that Autocomplete.open can map. This method throws an
+    * IllegalArgumentException if a line is malformed or has a negative
+    * weight, and an IOException if either file cannot be accessed.
+    */
+   public void compile(Path input, Path snapshot) throws IOException {
+      Autocomplete autocomplete = load(input, snapshot);
+      if (autocomplete != null) {
+         autocomplete.save(snapshot);
+      }
+   }
+
+   /**
+    * Loads the input. Returns an in-memory index if everything fit in the
+    * budget; otherwise merges into the snapshot file and returns null.
+    */
+   private Autocomplete load(Path input, Path snapshot) throws IOException {
+      if (input == null || snapshot == null) {
+         throw new NullPointerException();
+      }
+
+      Runs runs = new Runs();
+      try {
+         parse(input, runs);
+         if (runs.files.isEmpty()) {
+            Term[] sorted = runs.chunk.toArray(new Term[0]);
+            runs.chunk = null;
+            Arrays.sort(sorted);
+            return new Autocomplete(TermStore.fromSorted(sorted));
+         }
+         runs.spill();
+         merge(runs, snapshot);
+         return null;
+      }
+      finally {
+         for (Path run : runs.files) {
+            Files.deleteIfExists(run);
+         }
+      }
+   }
+
+   /** Decodes the input a buffer at a time and hands each line to the runs. */
+   private void parse(Path input, Runs runs) throws IOException {
+      CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+         .onMalformedInput(CodingErrorAction.REPORT)
+         .onUnmappableCharacter(CodingErrorAction.REPORT);
+      ByteBuffer bytes = ByteBuffer.allocate(BUFFER_BYTES);
+      CharBuffer chars = CharBuffer.allocate(BUFFER_BYTES);
+      StringBuilder line = new StringBuilder();
+      LineParser parser = new LineParser(runs);
+
+      try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+         boolean eof = false;
+         while (!eof) {
+            eof = channel.read(bytes) < 0;
+            bytes.flip();
+            CoderResult result = decoder.decode(bytes, chars, eof);
+            if (result.isError()) {
+               result.throwException();
+            }
+            bytes.compact();
+            chars.flip();
+            while (chars.hasRemaining()) {
+               char c = chars.get();
+               if (c == '\n') {
+                  parser.accept(line);
+                  line.setLength(0);
+               }
+               else {
+                  line.append(c);
+               }
+            }
+            chars.clear();
+         }
+         decoder.flush(chars);
+         if (line.length() > 0) {
+            parser.accept(line);
+         }
+      }
+   }
+
+   /**
+    * Merges the sorted runs into a snapshot file and builds its weight
+    * tree. Like Autocomplete.save, it writes a temporary file and then
+    * atomically replaces the snapshot with it.
+    */
+   private void merge(Runs runs, Path snapshot) throws IOException {
+      if (runs.count > Integer.MAX_VALUE - 1 || runs.charCount > Integer.MAX_VALUE) {
+         throw new IOException("term file too large for one snapshot");
+      }
+      int n = (int) runs.count;
+      int charCount = (int) runs.charCount;
+      AutocompleteSnapshot.Layout layout = new AutocompleteSnapshot.Layout(n, charCount, -1);
+
+      PriorityQueue<RunReader> readers = new PriorityQueue<RunReader>();
+      Path temp = AutocompleteSnapshot.tempFileFor(snapshot);
+      try {
+         try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.READ,
+               StandardOpenOption.WRITE)) {
+            for (Path run : runs.files) {
+               RunReader reader = new RunReader(run);
+               if (reader.advance()) {
+                  readers.add(reader);
+               }
+            }
+
+            AutocompleteSnapshot.writeHeader(channel, n, charCount, -1);
+            AutocompleteSnapshot.Writer weights = new AutocompleteSnapshot.Writer(channel, layout.weights);
+            AutocompleteSnapshot.Writer offsets = new AutocompleteSnapshot.Writer(channel, layout.offsets);
+            AutocompleteSnapshot.Writer chars = new AutocompleteSnapshot.Writer(channel, layout.chars);
+            int offset = 0;
+            while (!readers.isEmpty()) {
+               RunReader reader = readers.poll();
+               Term term = reader.current;
+               weights.putLong(term.weight);
+               offsets.putInt(offset);
+               for (int i = 0; i < term.query.length(); i++) {
+                  chars.putChar(term.query.charAt(i));
+               }
+               offset += term.query.length();
+               if (reader.advance()) {
+                  readers.add(reader);
+               }
+            }
+            offsets.putInt(offset);
+            weights.flush();
+            offsets.flush();
+            chars.flush();
+            AutocompleteSnapshot.pad(channel, layout.end);
+
+            LongBuffer mappedWeights = channel.map(FileChannel.MapMode.READ_ONLY,
+               layout.weights, 8L * n).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+            IntBuffer tree = channel.map(FileChannel.MapMode.READ_WRITE,
+               layout.tree, 4L * WeightIndex.treeSize(n)).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            WeightIndex.build(mappedWeights, tree);
+         }
+         AutocompleteSnapshot.replace(temp, snapshot);
+      }
+      finally {
+         for (RunReader reader : readers) {
+            reader.close();
+         }
+         Files.deleteIfExists(temp);
+      }
+   }
+
+   private Path createTemp(String suffix) throws IOException {
+      if (tempDirectory == null) {
+         return Files.createTempFile("terms", suffix);
+      }
+      return Files.createTempFile(tempDirectory, "terms", suffix);
+   }
+
+   /**
+    * Parses one "weight TAB query" line at a time, validating the weight
+    * the way the Term constructor does.
+    */
+   private static class LineParser {
+      private final Runs runs;
+      private long lineNumber;
+      private boolean seenTerm;
+
+      LineParser(Runs runs) {
+         this.runs = runs;
+      }
+
+      void accept(StringBuilder line) throws IOException {
+         lineNumber++;
+         int end = line.length();
+         if (end > 0 && line.charAt(end - 1) == '\r') {
+            end--;
+         }
+         int start = 0;
+         while (start < end && line.charAt(start) == ' ') {
+            start++;
+         }
+         if (start == end) {
+            return;
+         }
+
+         int tab = start;
+         while (tab < end && line.charAt(tab) != '\t') {
+            tab++;
+         }
+         if (tab == end) {
+            if (!seenTerm) {
+               seenTerm = true;
+               return;
+            }
+            throw new IllegalArgumentException("line " + lineNumber + ": missing tab");
+         }
+         seenTerm = true;
+
+         long weight = 0;
+         if (line.charAt(start) == '-') {
+            throw new IllegalArgumentException("line " + lineNumber + ": negative weight");
+         }
+         if (tab == start) {
+            throw new IllegalArgumentException("line " + lineNumber + ": missing weight");
+         }
+         for (int i = start; i < tab; i++) {
+            int digit = Character.digit(line.charAt(i), 10);
+            if (digit < 0 || weight > (Long.MAX_VALUE - digit) / 10) {
+               throw new IllegalArgumentException("line " + lineNumber + ": bad weight");
+            }
+            weight = weight * 10 + digit;
+         }
+         runs.add(new Term(line.substring(tab + 1, end), weight));
+      }
+   }
+
+   /** The in-memory chunk of terms and the runs spilled so far. */
+   private class Runs {
+      List<Term> chunk = new ArrayList<Term>();
+      List<Path> files = new ArrayList<Path>();
+      long chunkBytes;
+      long count;
+      long charCount;
+
+      void add(Term term) throws IOException {
+         chunk.add(term);
+         count++;
+         charCount += term.query.length();
+         chunkBytes += TERM_OVERHEAD_BYTES + 2L * term.query.length();
+         if (chunkBytes > heapBudget) {
+            spill();
+         }
+      }
+
+      /** Sorts the current chunk and writes it out as one run. */
+      void spill() throws IOException {
+         Term[] sorted = chunk.toArray(new Term[0]);
+         chunk.clear();
+         chunkBytes = 0;
+         Arrays.sort(sorted);
+
+         Path run = createTemp(".run");
+         files.add(run);
+         try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+               Files.newOutputStream(run), BUFFER_BYTES))) {
+            for (Term term : sorted) {
+               out.writeLong(term.weight);
+               out.writeInt(term.query.length());
+               out.writeChars(term.query);
+            }
+         }
+      }
+   }
+
+   /** Reads one sorted run back a term at a time. */
+   private static class RunReader implements Comparable<RunReader> {
+      private final DataInputStream in;
+      Term current;
+
+      RunReader(Path run) throws IOException {
+         in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), BUFFER_BYTES));
+      }
+
+      /** Reads the next term; returns false and closes the run at its end. */
+      boolean advance() throws IOException {
+         long weight;
+         try {
+            weight = in.readLong();
+         }
+         catch (EOFException e) {
+            close();
+            return false;
+         }
+         char[] query = new char[in.readInt()];
+         for (int i = 0; i < query.length; i++) {
+            query[i] = in.readChar();
+         }
+         current = new Term(new String(query), weight);
+         return true;
+      }
+
+      void close() throws IOException {
+         in.close();
+      }
+
+      @Override
+      public int compareTo(RunReader other) {
+         return current.compareTo(other.current);
+      }
+   }
+
+}
@@ -0,0 +1,184 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for TermLoader: loaded indexes answer as an index built from the
+ * same terms, whether the terms fit the heap budget or are spilled to
+ * sorted runs and merged into a snapshot, and malformed lines are
+ * reported with their line number.
+ */
+public class TermLoaderTest {
+
+   private static final String[] PREFIXES = {"a", "b", "ab", "ba", "abc", "cab", "dddd", "e"};
+
+   // small enough that a few terms fill it, so loads spill many runs
+   private static final long TINY_BUDGET = 1000;
+
+   private Path dir;
+
+   @Before public void setUp() throws IOException {
+      dir = Files.createTempDirectory("loader");
+   }
+
+   @After public void tearDown() throws IOException {
+      for (Path file : Files.newDirectoryStream(dir)) {
+         Files.delete(file);
+      }
+      Files.delete(dir);
+   }
+
+   /** Writes the terms as a term file, with a count line first. */
+   private Path termFile(Term[] terms, String newline) throws IOException {
+      StringBuilder text = new StringBuilder();
+      text.append(terms.length).append(newline);
+      for (Term term : terms) {
+         text.append("   ").append(term.weight).append('\t').append(term.query).append(newline);
+      }
+      return write(text.toString());
+   }
+
+   private Path write(String text) throws IOException {
+      Path file = Files.createTempFile(dir, "terms", ".txt");
+      Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+      return file;
+   }
+
+   private static void assertSameMatches(Autocomplete expected, Autocomplete actual) {
+      for (String prefix : PREFIXES) {
+         Assert.assertEquals(prefix, Arrays.toString(expected.allMatches(prefix)),
+            Arrays.toString(actual.allMatches(prefix)));
+         Assert.assertEquals(prefix, Arrays.toString(expected.allMatches(prefix, 5)),
+            Arrays.toString(actual.allMatches(prefix, 5)));
+      }
+   }
+
+   private long filesEndingWith(String suffix) throws IOException {
+      try (Stream<Path> files = Files.list(dir)) {
+         return files.filter(f -> f.toString().endsWith(suffix)).count();
+      }
+   }
+
+   @Test public void loadsWithinBudget() throws IOException {
+      Term[] terms = AutocompleteTest.randomTerms(new Random(2210), 1000);
+      Autocomplete loaded = new TermLoader(1L << 30, dir).load(termFile(terms, "\n"));
+      assertSameMatches(new Autocomplete(terms), loaded);
+   }
+
+   @Test public void mergesSpilledRuns() throws IOException {
+      Term[] terms = AutocompleteTest.randomTerms(new Random(2210), 1000);
+      Autocomplete loaded = new TermLoader(TINY_BUDGET, dir).load(termFile(terms, "\n"));
+      Assert.assertEquals(terms.length, loaded.store().size());
+      assertSameMatches(new Autocomplete(terms), loaded);
+      Assert.assertEquals(0, filesEndingWith(".run"));
+      Assert.assertEquals(0, filesEndingWith(".snapshot"));
+   }
+
+   @Test public void repeatedLoadsLeaveNoFilesBehind() throws IOException {
+      Term[] terms = AutocompleteTest.randomTerms(new Random(2210), 1000);
+      Path input = termFile(terms, "\n");
+      for (int i = 0; i < 5; i++) {
+         Autocomplete loaded = new TermLoader(TINY_BUDGET, dir).load(input);
+         assertSameMatches(new Autocomplete(terms), loaded);
+      }
+      try (Stream<Path> files = Files.list(dir)) {
+         Assert.assertEquals(1, files.count());
+      }
+   }
+
+   @Test public void failedLoadLeavesNoFilesBehind() throws IOException {
+      Path input = write("1\ta\n2\tb\n3\tc\n4\td\nx\te\n");
+      try {
+         new TermLoader(1, dir).load(input);
+         Assert.fail("accepted a bad weight");
+      }
+      catch (IllegalArgumentException e) {
+         // expected
+      }
+      try (Stream<Path> files = Files.list(dir)) {
+         Assert.assertEquals(1, files.count());
+      }
+   }
+
+   @Test public void compilesSpilledRunsToSnapshot() throws IOException {
+      Term[] terms = AutocompleteTest.randomTerms(new Random(2210), 1000);
+      Path snapshot = dir.resolve("terms.snapshot");
+      new TermLoader(TINY_BUDGET, dir).compile(termFile(terms, "\n"), snapshot);
+      assertSameMatches(new Autocomplete(terms), Autocomplete.open(snapshot));
+      Assert.assertEquals(0, filesEndingWith(".run"));
+   }
+
+   @Test public void compilingOverOpenSnapshotLeavesOpenedIndexIntact() throws IOException {
+      Term[] terms = AutocompleteTest.randomTerms(new Random(2210), 1000);
+      Path snapshot = dir.resolve("terms.snapshot");
+      TermLoader loader = new TermLoader(TINY_BUDGET, dir);
+      loader.compile(termFile(terms, "\n"), snapshot);
+      Autocomplete opened = Autocomplete.open(snapshot);
+      loader.compile(termFile(Arrays.copyOf(terms, 100), "\n"), snapshot);
+      assertSameMatches(new Autocomplete(terms), opened);
+      Assert.assertEquals(100, Autocomplete.open(snapshot).store().size());
+   }
+
+   @Test public void readsCrlfLines() throws IOException {
+      Term[] terms = AutocompleteTest.randomTerms(new Random(2210), 1000);
+      for (long budget : new long[] {1L << 30, TINY_BUDGET}) {
+         Autocomplete loaded = new TermLoader(budget, dir).load(termFile(terms, "\r\n"));
+         assertSameMatches(new Autocomplete(terms), loaded);
+      }
+   }
+
+   @Test public void countLineIsOptional() throws IOException {
+      Autocomplete loaded = new TermLoader(1L << 30, dir).load(write("5\tab\n  7\tabc\n\n2\tb"));
+      Assert.assertEquals("[abc\t7, ab\t5]", Arrays.toString(loaded.allMatches("a")));
+      Assert.assertEquals("[b\t2]", Arrays.toString(loaded.allMatches("b")));
+   }
+
+   @Test public void skipsCountLine() throws IOException {
+      Autocomplete loaded = new TermLoader(1L << 30, dir).load(write("2\n5\tab\n7\tabc\n"));
+      Assert.assertEquals(2, loaded.store().size());
+   }
+
+   @Test public void keepsSpacesInQueries() throws IOException {
+      Autocomplete loaded = new TermLoader(1L << 30, dir).load(write("5\tnew york\n"));
+      Assert.assertEquals("[new york\t5]", Arrays.toString(loaded.allMatches("new ")));
+   }
+
+   private void assertRejected(String text, String message) throws IOException {
+      try {
+         new TermLoader(1L << 30, dir).load(write(text));
+         Assert.fail("accepted " + text);
+      }
+      catch (IllegalArgumentException e) {
+         Assert.assertEquals(message, e.getMessage());
+      }
+   }
+
+   @Test public void reportsMalformedLines() throws IOException {
+      assertRejected("2\n5\tab\nabc\n", "line 3: missing tab");
+      assertRejected("5\tab\n-3\tabc\n", "line 2: negative weight");
+      assertRejected("5\tab\n\tabc\n", "line 2: missing weight");
+      assertRejected("5\tab\n1x\tabc\n", "line 2: bad weight");
+      assertRejected("99999999999999999999\tab\n", "line 1: bad weight");
+   }
+
+   @Test(expected = IOException.class)
+   public void rejectsMalformedUtf8() throws IOException {
+      Path file = dir.resolve("bad.txt");
+      Files.write(file, new byte[] {'5', '\t', (byte) 0xC3, '\n'});
+      new TermLoader(1L << 30, dir).load(file);
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void rejectsNonPositiveBudget() {
+      new TermLoader(0);
+   }
+}
@@ -0,0 +1,477 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.IntStream;
+
+/**
+ * Columnar storage for a sorted set of terms. Instead of one object per
+ * term, all queries are concatenated into a single char buffer, an int
+ * buffer holds where each query starts, and the weights sit in a long
+ * buffer. Term i occupies chars [offsets[i], offsets[i + 1]).
+ *
+ * The buffers may live on the heap or in direct (off-heap) memory. In
+ * either case searching compares chars in place and never creates a
+ * String or a Term; those are only built for results.
+ *
+ * A normalized store also holds a second pair of columns with a search
+ * key per term: its query case-folded and stripped of accents. Such a
+ * store is sorted and searched by key, so "Apple" and "apple" sort
+ * together and an accented query is found by its unaccented prefix,
+ * without normalizing anything but the typed prefix, once per search.
+ *
+ */
+public class TermStore {
+
+   // Greek small final sigma, folded to the small sigma
+   private static final int FINAL_SIGMA = '\u03C2';
+   private static final int SIGMA = '\u03C3';
+
+   private final CharBuffer chars;
+   private final IntBuffer offsets;
+   private final LongBuffer weights;
+   private final CharBuffer keyChars;
+   private final IntBuffer keyOffsets;
+   private final int n;
+
+   /**
+    * Builds a heap store from the given array of terms, sorted in
+    * ascending lexicographic order of query. The array itself is not
+    * modified. This method throws a NullPointerException if terms is null.
+    */
+   public TermStore(Term[] terms) {
+      this(terms, false);
+   }
+
+   /**
+    * Builds a store from the given array of terms, sorted in ascending
+    * lexicographic order of query. If direct is true the columns are
+    * allocated outside the Java heap. This method throws a
+    * NullPointerException if terms is null.
+    */
+   public TermStore(Term[] terms, boolean direct) {
+      this(terms, direct, false);
+   }
+
+   /**
+    * Builds a store from the given array of terms, sorted in ascending
+    * lexicographic order of query. If direct is true the columns are
+    * allocated outside the Java heap. If parallel is true the sort and
+    * the copy into the columns run on the common fork-join pool. This
+    * method throws a NullPointerException if terms is null.
+    */
+   public TermStore(Term[] terms, boolean direct, boolean parallel) {
+      if (terms == null) {
+         throw new NullPointerException();
+      }
+
+      Term[] sorted = Arrays.copyOf(terms, terms.length);
+      if (parallel) {
+         Arrays.parallelSort(sorted);
+      }
+      else {
+         Arrays.sort(sorted);
+      }
+      n = sorted.length;
+
+      int total = 0;
+      for (Term term : sorted) {
+         total = Math.addExact(total, term.query.length());
+      }
+
+      chars = direct ? allocate(2L * total).asCharBuffer() : CharBuffer.allocate(total);
+      offsets = direct ? allocate(4L * (n + 1)).asIntBuffer() : IntBuffer.allocate(n + 1);
+      weights = direct ? allocate(8L * n).asLongBuffer() : LongBuffer.allocate(n);
+      keyChars = null;
+      keyOffsets = null;
+      if (parallel) {
+         fillParallel(sorted);
+      }
+      else {
+         fill(sorted);
+      }
+   }
+
+   /**
+    * Builds a heap store from an array that is already sorted by query,
+    * without copying or re-sorting it.
+    */
+   static TermStore fromSorted(Term[] sorted) {
+      int total = 0;
+      for (Term term : sorted) {
+         total = Math.addExact(total, term.query.length());
+      }
+      TermStore store = new TermStore(CharBuffer.allocate(total),
+         IntBuffer.allocate(sorted.length + 1), LongBuffer.allocate(sorted.length));
+      store.fill(sorted);
+      return store;
+   }
+
+   private void fill(Term[] sorted) {
+      int offset = 0;
+      for (int i = 0; i < n; i++) {
+         String query = sorted[i].query;
+         offsets.put(i, offset);
+         weights.put(i, sorted[i].weight);
+         for (int j = 0; j < query.length(); j++) {
+            chars.put(offset + j, query.charAt(j));
+         }
+         offset += query.length();
+      }
+      offsets.put(n, offset);
+   }
+
+   /**
+    * Like fill, but computes the offsets with a parallel prefix sum and
+    * then copies each term into its own slice of the columns in parallel.
+    */
+   private void fillParallel(Term[] sorted) {
+      int[] ends = new int[n];
+      Arrays.parallelSetAll(ends, i -> sorted[i].query.length());
+      Arrays.parallelPrefix(ends, Integer::sum);
+      offsets.put(0, 0);
+      IntStream.range(0, n).parallel().forEach(i -> {
+         String query = sorted[i].query;
+         int offset = ends[i] - query.length();
+         offsets.put(i + 1, ends[i]);
+         weights.put(i, sorted[i].weight);
+         for (int j = 0; j < query.length(); j++) {
+            chars.put(offset + j, query.charAt(j));
+         }
+      });
+   }
+
+   /**
+    * Builds a normalized heap store from the given array of terms, sorted
+    * in ascending order of normalized key and then of query. This method
+    * throws a NullPointerException if terms is null.
+    */
+   public static TermStore normalized(Term[] terms) {
+      if (terms == null) {
+         throw new NullPointerException();
+      }
+
+      Keyed[] keyed = new Keyed[terms.length];
+      int total = 0;
+      int keyTotal = 0;
+      for (int i = 0; i < terms.length; i++) {
+         keyed[i] = new Keyed(terms[i], normalize(terms[i].query));
+         total = Math.addExact(total, terms[i].query.length());
+         keyTotal = Math.addExact(keyTotal, keyed[i].key.length());
+      }
+      Arrays.sort(keyed, BY_KEY);
+
+      Term[] sorted = new Term[keyed.length];
+      for (int i = 0; i < keyed.length; i++) {
+         sorted[i] = keyed[i].term;
+      }
+      TermStore store = new TermStore(CharBuffer.allocate(total), IntBuffer.allocate(sorted.length + 1),
+         LongBuffer.allocate(sorted.length), CharBuffer.allocate(keyTotal),
+         IntBuffer.allocate(sorted.length + 1));
+      store.fill(sorted);
+
+      int offset = 0;
+      for (int i = 0; i < keyed.length; i++) {
+         String key = keyed[i].key;
+         store.keyOffsets.put(i, offset);
+         for (int j = 0; j < key.length(); j++) {
+            store.keyChars.put(offset + j, key.charAt(j));
+         }
+         offset += key.length();
+      }
+      store.keyOffsets.put(keyed.length, offset);
+      return store;
+   }
+
+   /**
+    * Returns the search key for the given text: decomposed, stripped of
+    * combining marks such as accents, and lower-cased one character at a
+    * time, with the final sigma folded to the ordinary one. Folding never
+    * depends on the characters around, so the key of a prefix of a text
+    * is always a prefix of the key of the text.
+    */
+   public static String normalize(String text) {
+      String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+      StringBuilder key = new StringBuilder(decomposed.length());
+      for (int i = 0; i < decomposed.length(); ) {
+         int c = decomposed.codePointAt(i);
+         i += Character.charCount(c);
+         int type = Character.getType(c);
+         if (type != Character.NON_SPACING_MARK && type != Character.COMBINING_SPACING_MARK
+               && type != Character.ENCLOSING_MARK) {
+            c = Character.toLowerCase(c);
+            key.appendCodePoint((c == FINAL_SIGMA) ? SIGMA : c);
+         }
+      }
+      return key.toString();
+   }
+
+   /**
+    * Wraps existing columns, for example ones mapped from a snapshot
+    * file. The columns must already be sorted by query.
+    */
+   TermStore(CharBuffer chars, IntBuffer offsets, LongBuffer weights) {
+      this(chars, offsets, weights, null, null);
+   }
+
+   /**
+    * Wraps existing columns including normalized keys, or none if the key
+    * columns are null. The columns must already be sorted by key.
+    */
+   TermStore(CharBuffer chars, IntBuffer offsets, LongBuffer weights,
+         CharBuffer keyChars, IntBuffer keyOffsets) {
+      this.chars = chars;
+      this.offsets = offsets;
+      this.weights = weights;
+      this.keyChars = keyChars;
+      this.keyOffsets = keyOffsets;
+      this.n = weights.limit();
+   }
+
+   private static ByteBuffer allocate(long bytes) {
+      return ByteBuffer.allocateDirect(Math.toIntExact(bytes)).order(ByteOrder.nativeOrder());
+   }
+
+   /** Returns the number of terms in this store. */
+   public int size() {
+      return n;
+   }
+
+   /** Returns the query of term i. */
+   public String query(int i) {
+      int start = offsets.get(i);
+      int end = offsets.get(i + 1);
+      char[] query = new char[end - start];
+      for (int j = 0; j < query.length; j++) {
+         query[j] = chars.get(start + j);
+      }
+      return new String(query);
+   }
+
+   /** Returns the weight of term i. */
+   public long weight(int i) {
+      return weights.get(i);
+   }
+
+   /** Returns term i as a new Term object. */
+   public Term term(int i) {
+      return new Term(query(i), weight(i));
+   }
+
+   /** Returns true if this store is sorted and searched by normalized key. */
+   public boolean isNormalized() {
+      return keyChars != null;
+   }
+
+   /** Returns the key column, or null if this store is not normalized. */
+   CharBuffer keyChars() {
+      return (keyChars == null) ? null : keyChars.duplicate();
+   }
+
+   /** Returns the key offset column, or null if this store is not normalized. */
+   IntBuffer keyOffsets() {
+      return (keyOffsets == null) ? null : keyOffsets.duplicate();
+   }
+
+   /** Returns the total number of query characters in this store. */
+   int charCount() {
+      return offsets.get(n);
+   }
+
+   /** Returns the query column. */
+   CharBuffer chars() {
+      return chars.duplicate();
+   }
+
+   /** Returns the offset column, which has one more entry than terms. */
+   IntBuffer offsets() {
+      return offsets.duplicate();
+   }
+
+   /** Returns the weight column, indexed by term position. */
+   LongBuffer weights() {
+      return weights.duplicate();
+   }
+
+   /**
+    * Compares the prefix with the first prefix.length() characters of the
+    * query of term i, in the same way as Term.byPrefixOrder would. In a
+    * normalized store the prefix is compared with the key of term i
+    * instead, and must already be normalized.
+    */
+   public int comparePrefix(String prefix, int i) {
+      CharBuffer text = (keyChars == null) ? chars : keyChars;
+      IntBuffer starts = (keyChars == null) ? offsets : keyOffsets;
+      int start = starts.get(i);
+      int length = Math.min(prefix.length(), starts.get(i + 1) - start);
+      for (int j = 0; j < length; j++) {
+         char c1 = prefix.charAt(j);
+         char c2 = text.get(start + j);
+         if (c1 != c2) {
+            return c1 - c2;
+         }
+      }
+      return prefix.length() - length;
+   }
+
+   /**
+    * Returns the positions of the first and last terms that start with
+    * the given prefix as a two-element array, or {-1, -1} if no term
+    * does. In a normalized store the prefix is normalized first, so the
+    * match ignores case and accents. This method throws a
+    * NullPointerException if prefix is null.
+    */
+   public int[] equalRange(String prefix) {
+      return equalRange(prefix, null);
+   }
+
+   /**
+    * Returns the same range as equalRange(prefix) and, if probes is not
+    * null, adds the number of terms compared with the prefix to probes[0].
+    */
+   int[] equalRange(String prefix, int[] probes) {
+      if (prefix == null) {
+         throw new NullPointerException();
+      }
+      return keyRange(keyOf(prefix), 0, n - 1, probes);
+   }
+
+   /**
+    * Returns the prefix as this store compares it: normalized if the store
+    * is normalized, and unchanged otherwise.
+    */
+   String keyOf(String prefix) {
+      return (keyChars == null) ? prefix : normalize(prefix);
+   }
+
+   /**
+    * Entries sorted so that those starting with any given prefix are
+    * contiguous, such as the terms of a store or the tokens of a
+    * TokenIndex.
+    */
+   interface Sorted {
+
+      /**
+       * Compares the prefix with the start of entry i, returning a
+       * negative number, zero or a positive number as the prefix sorts
+       * before, matches or sorts after it.
+       */
+      int comparePrefix(String prefix, int i);
+   }
+
+   /**
+    * Returns the first and last positions in [lo, hi] of the terms that
+    * start with the given key, as returned by keyOf, or {-1, -1} if there
+    * are none there. Callers that already know every match lies in a
+    * smaller window search only that window. If probes is not null, the
+    * number of terms compared is added to probes[0].
+    */
+   int[] keyRange(String key, int lo, int hi, int[] probes) {
+      return prefixRange(this::comparePrefix, key, lo, hi, probes);
+   }
+
+   /**
+    * Returns the first and last positions in [lo, hi] of the entries that
+    * start with the given prefix, or {-1, -1} if there are none there. If
+    * probes is not null, the number of entries compared is added to
+    * probes[0].
+    */
+   static int[] prefixRange(Sorted entries, String prefix, int lo, int hi, int[] probes) {
+      int left = lo;
+      int right = hi;
+      int count = 0;
+      int[] range = {-1, -1};
+      while (left <= right) {
+         int middle = (left + right) >>> 1;
+         int comp = entries.comparePrefix(prefix, middle);
+         count++;
+         if (comp < 0) {
+            right = middle - 1;
+         }
+
+         else if (comp > 0) {
+            left = middle + 1;
+         }
+
+         else {
+            range[0] = lowerBound(entries, prefix, left, middle, probes);
+            range[1] = upperBound(entries, prefix, middle, right, probes);
+            break;
+         }
+      }
+      if (probes != null) {
+         probes[0] += count;
+      }
+      return range;
+   }
+
+   /** Returns the first position in [left, hit] that matches the prefix. */
+   private static int lowerBound(Sorted entries, String prefix, int left, int hit, int[] probes) {
+      int right = hit - 1;
+      int count = 0;
+      while (left <= right) {
+         int middle = (left + right) >>> 1;
+         count++;
+         if (entries.comparePrefix(prefix, middle) > 0) {
+            left = middle + 1;
+         }
+
+         else {
+            right = middle - 1;
+         }
+      }
+      if (probes != null) {
+         probes[0] += count;
+      }
+      return left;
+   }
+
+   /** Returns the last position in [hit, right] that matches the prefix. */
+   private static int upperBound(Sorted entries, String prefix, int hit, int right, int[] probes) {
+      int left = hit + 1;
+      int count = 0;
+      while (left <= right) {
+         int middle = (left + right) >>> 1;
+         count++;
+         if (entries.comparePrefix(prefix, middle) < 0) {
+            right = middle - 1;
+         }
+
+         else {
+            left = middle + 1;
+         }
+      }
+      if (probes != null) {
+         probes[0] += count;
+      }
+      return right;
+   }
+
+   // ascending key, then ascending query so equal keys sort stably
+   private static final Comparator<Keyed> BY_KEY =
+      new Comparator<Keyed>() {
+         public int compare(Keyed a, Keyed b) {
+            int cmp = a.key.compareTo(b.key);
+            if (cmp == 0) {
+               cmp = a.term.compareTo(b.term);
+            }
+            return cmp;
+         }
+      };
+
+   /** A term paired with its normalized key while a store is sorted. */
+   private static class Keyed {
+      final Term term;
+      final String key;
+
+      Keyed(Term term, String key) {
+         this.term = term;
+         this.key = key;
+      }
+   }
+
+}
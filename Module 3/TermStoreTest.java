@@ -0,0 +1,136 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for TermStore: a normalized store finds terms by their case-folded,
+ * accent-stripped prefix, in agreement with a scan that normalizes every
+ * query.
+ */
+public class TermStoreTest {
+
+   // letters of the random queries, in several cases and accents
+   private static final String LETTERS = "aA\u00E1\u00C0bBcC\u00E7\u00C7eE\u00E9\u00C9";
+
+   private static final String[] PREFIXES =
+      {"a", "A", "\u00E1", "\u00C1", "ab", "AB", "\u00E1b", "ce", "\u00C7\u00C9", "\u00E9a", "d"};
+
+   /** Returns the queries whose normalized form starts with the normalized prefix. */
+   private static Set<String> normalizedScan(Term[] terms, String prefix) {
+      Set<String> matches = new TreeSet<String>();
+      String key = TermStore.normalize(prefix);
+      for (Term term : terms) {
+         if (TermStore.normalize(term.query).startsWith(key)) {
+            matches.add(term.query);
+         }
+      }
+      return matches;
+   }
+
+   /** Returns the queries of the terms in the given range of the store. */
+   private static Set<String> queries(TermStore store, int[] range) {
+      Set<String> queries = new TreeSet<String>();
+      for (int i = range[0]; i <= range[1] && range[0] != -1; i++) {
+         queries.add(store.query(i));
+      }
+      return queries;
+   }
+
+   @Test public void normalizeFoldsCaseAndAccents() {
+      Assert.assertEquals("epee", TermStore.normalize("\u00C9p\u00E9e"));
+      Assert.assertEquals("angstrom", TermStore.normalize("\u00C5NGSTR\u00D6M"));
+      Assert.assertEquals("naive cafe", TermStore.normalize("na\u00EFve caf\u00E9"));
+      Assert.assertEquals("facade", TermStore.normalize("FA\u00C7ADE"));
+      Assert.assertEquals("", TermStore.normalize(""));
+   }
+
+   @Test public void foldsFinalSigmaLikeAnyOther() {
+      String upper = "\u039F\u0394\u039F\u03A3";
+      String lower = "\u03BF\u03B4\u03BF\u03C3";
+      Assert.assertEquals(lower, TermStore.normalize(upper));
+      Assert.assertEquals(lower, TermStore.normalize("\u03BF\u03B4\u03BF\u03C2"));
+      Assert.assertEquals(lower + "\u03B1", TermStore.normalize(upper + "\u0391"));
+
+      TermStore store = TermStore.normalized(new Term[] {new Term(upper + "\u0391", 2),
+         new Term(lower + "\u03B1", 1), new Term("odos", 3)});
+      Set<String> both = new TreeSet<String>(Arrays.asList(upper + "\u0391", lower + "\u03B1"));
+      Assert.assertEquals(both, queries(store, store.equalRange(upper)));
+      Assert.assertEquals(both, queries(store, store.equalRange("\u03BF\u03B4\u03BF\u03C2")));
+   }
+
+   @Test public void keyOfPrefixIsPrefixOfKey() {
+      // capital and final sigma, dotted capital I, a ligature and accented letters
+      String letters = "a\u03A3\u03C3\u03C2\u0130I\u0131\uFB01\u00C9\u00DF\u1E9E";
+      Random rng = new Random(2210);
+      for (int i = 0; i < 2000; i++) {
+         StringBuilder text = new StringBuilder();
+         int length = 1 + rng.nextInt(6);
+         for (int j = 0; j < length; j++) {
+            text.append(letters.charAt(rng.nextInt(letters.length())));
+         }
+         String key = TermStore.normalize(text.toString());
+         for (int end = 0; end <= text.length(); end++) {
+            String prefix = text.substring(0, end);
+            Assert.assertTrue(prefix, key.startsWith(TermStore.normalize(prefix)));
+         }
+      }
+   }
+
+   @Test public void normalizedRangeAgreesWithScan() {
+      Term[] terms = AutocompleteTest.randomTerms(new Random(2210), 1000, LETTERS);
+      TermStore store = TermStore.normalized(terms);
+      Assert.assertTrue(store.isNormalized());
+      Assert.assertEquals(terms.length, store.size());
+      for (String prefix : PREFIXES) {
+         Assert.assertEquals(prefix, normalizedScan(terms, prefix),
+            queries(store, store.equalRange(prefix)));
+      }
+   }
+
+   @Test public void plainStoreStaysCaseSensitive() {
+      Term[] terms = {new Term("\u00C9p\u00E9e", 3), new Term("epic", 2), new Term("Eperon", 1)};
+      TermStore store = new TermStore(terms);
+      Assert.assertFalse(store.isNormalized());
+      Assert.assertEquals(new TreeSet<String>(Arrays.asList("epic")),
+         queries(store, store.equalRange("ep")));
+   }
+
+   @Test public void accentlessPrefixFindsAccentedQueries() {
+      String epee = "\u00C9p\u00E9e";
+      Term[] terms = {new Term(epee, 3), new Term("epic", 2), new Term("Eperon", 1),
+         new Term("apex", 4)};
+      Autocomplete index = new Autocomplete(TermStore.normalized(terms));
+      Assert.assertEquals("[" + epee + "\t3, epic\t2, Eperon\t1]",
+         Arrays.toString(index.allMatches("ep")));
+      Assert.assertEquals("[" + epee + "\t3, Eperon\t1]",
+         Arrays.toString(index.allMatches("\u00C9PE")));
+      Assert.assertEquals("[" + epee + "\t3]", Arrays.toString(index.allMatches("epee", 5)));
+      Assert.assertEquals(0, index.allMatches("x").length);
+   }
+
+   @Test public void normalizedMatchesAgreeWithScan() {
+      Term[] terms = AutocompleteTest.randomTerms(new Random(2210), 1000, LETTERS);
+      Autocomplete index = new Autocomplete(TermStore.normalized(terms));
+      for (String prefix : PREFIXES) {
+         Set<String> expected = normalizedScan(terms, prefix);
+         Term[] matches = index.allMatches(prefix);
+         Assert.assertEquals(prefix, expected.size(), matches.length);
+         for (int i = 0; i < matches.length; i++) {
+            Assert.assertTrue(prefix, expected.contains(matches[i].query));
+            Assert.assertTrue(prefix, i == 0 || matches[i - 1].weight > matches[i].weight);
+         }
+         Term[] top = Arrays.copyOf(matches, Math.min(5, matches.length));
+         Assert.assertEquals(prefix, Arrays.toString(top),
+            Arrays.toString(index.allMatches(prefix, 5)));
+      }
+   }
+
+   @Test(expected = NullPointerException.class)
+   public void normalizedRejectsNullTerms() {
+      TermStore.normalized(null);
+   }
+}
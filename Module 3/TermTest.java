@@ -0,0 +1,123 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for Term: sortByDescendingWeight orders terms exactly as a stable
+ * sort with byDescendingWeightOrder does, on both sides of the size at
+ * which it switches to the radix sort, and byPrefixOrder compares as the
+ * leading substrings of the queries do.
+ */
+public class TermTest {
+
+   private static final int[] SIZES = {0, 1, 2, 255, 256, 257, 1000, 20000};
+
+   /** Returns terms named by position, with weights drawn from [0, bound). */
+   private static Term[] randomTerms(Random rng, int count, long bound) {
+      Term[] terms = new Term[count];
+      for (int i = 0; i < count; i++) {
+         long weight = (bound == Long.MAX_VALUE) ? rng.nextLong() >>> 1 : (long) (rng.nextDouble() * bound);
+         terms[i] = new Term("t" + i, weight);
+      }
+      return terms;
+   }
+
+   /** Asserts that sortByDescendingWeight puts the very same terms where a stable sort does. */
+   private static void assertSortsStably(Term[] terms) {
+      Term[] expected = terms.clone();
+      Arrays.sort(expected, Term.byDescendingWeightOrder());
+      Term.sortByDescendingWeight(terms);
+      Assert.assertEquals(expected.length, terms.length);
+      for (int i = 0; i < terms.length; i++) {
+         Assert.assertSame(terms.length + " at " + i, expected[i], terms[i]);
+      }
+   }
+
+   @Test public void keepsEqualWeightsInOrder() {
+      Random rng = new Random(2210);
+      for (int size : SIZES) {
+         for (long bound : new long[] {1, 3, 10, 1000}) {
+            assertSortsStably(randomTerms(rng, size, bound));
+         }
+      }
+   }
+
+   @Test public void sortsWeightsOfEveryMagnitude() {
+      Random rng = new Random(2210);
+      for (int size : SIZES) {
+         for (long bound : new long[] {1L << 11, 1L << 22, 1L << 40, Long.MAX_VALUE}) {
+            assertSortsStably(randomTerms(rng, size, bound));
+         }
+      }
+   }
+
+   @Test public void sortsExtremeWeights() {
+      Term[] terms = new Term[1000];
+      for (int i = 0; i < terms.length; i++) {
+         long weight = (i % 3 == 0) ? 0 : (i % 3 == 1) ? Long.MAX_VALUE : Long.MAX_VALUE - 1;
+         terms[i] = new Term("t" + i, weight);
+      }
+      assertSortsStably(terms);
+      Assert.assertEquals(Long.MAX_VALUE, terms[0].weight);
+      Assert.assertEquals("t1", terms[0].query);
+      Assert.assertEquals(0, terms[terms.length - 1].weight);
+   }
+
+   @Test public void sortsPresortedAndReversedArrays() {
+      for (int size : SIZES) {
+         Term[] ascending = new Term[size];
+         Term[] descending = new Term[size];
+         for (int i = 0; i < size; i++) {
+            ascending[i] = new Term("a" + i, i / 4);
+            descending[i] = new Term("d" + i, (size - i) / 4);
+         }
+         assertSortsStably(ascending);
+         assertSortsStably(descending);
+      }
+   }
+
+   /** Returns a random string of up to ten characters, some of them far apart. */
+   private static String randomQuery(Random rng) {
+      String letters = "ab\u00E9\uFFFF";
+      StringBuilder query = new StringBuilder();
+      int length = rng.nextInt(11);
+      for (int j = 0; j < length; j++) {
+         query.append(letters.charAt(rng.nextInt(letters.length())));
+      }
+      return query.toString();
+   }
+
+   @Test public void prefixOrderComparesAsLeadingSubstrings() {
+      Random rng = new Random(2210);
+      for (int length = 1; length <= 70; length++) {
+         Comparator<Term> order = Term.byPrefixOrder(length);
+         for (int i = 0; i < 500; i++) {
+            String a = randomQuery(rng);
+            String b = (i % 4 == 0) ? a + randomQuery(rng) : randomQuery(rng);
+            int expected = a.substring(0, Math.min(length, a.length()))
+               .compareTo(b.substring(0, Math.min(length, b.length())));
+            Assert.assertEquals(a + " " + b + " length=" + length, Integer.signum(expected),
+               Integer.signum(order.compare(new Term(a, 0), new Term(b, 0))));
+         }
+      }
+   }
+
+   @Test public void prefixOrdersAreCachedForShortLengths() {
+      Assert.assertSame(Term.byPrefixOrder(1), Term.byPrefixOrder(1));
+      Assert.assertSame(Term.byPrefixOrder(63), Term.byPrefixOrder(63));
+      Assert.assertEquals(0, Term.byPrefixOrder(100).compare(new Term("ab", 1), new Term("ab", 2)));
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void prefixOrderRejectsNonPositiveLength() {
+      Term.byPrefixOrder(0);
+   }
+
+   @Test(expected = NullPointerException.class)
+   public void sortRejectsNullArray() {
+      Term.sortByDescendingWeight(null);
+   }
+}
@@ -0,0 +1,348 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Ternary search trie over autocomplete terms. Every node caches the
+ * heaviest weight found anywhere in its subtree, so the k heaviest
+ * completions of a prefix can be found with a best-first walk that
+ * only expands subtrees that can still contribute to the answer.
+ *
+ */
+public class TermTrie {
+
+   // largest edit distance fuzzyMatches accepts
+   private static final int MAX_EDITS = 2;
+
+   private Node root;
+   private int size;
+
+   /**
+    * Initializes a trie from the given array of terms. If the same query
+    * appears more than once, the heaviest occurrence is kept. This method
+    * throws a NullPointerException if terms is null.
+    */
+   public TermTrie(Term[] terms) {
+      if (terms == null) {
+         throw new NullPointerException();
+      }
+
+      Term[] sorted = Arrays.copyOf(terms, terms.length);
+      Arrays.sort(sorted);
+      putBalanced(sorted, 0, sorted.length - 1);
+   }
+
+   /** Returns the number of distinct queries in this trie. */
+   public int size() {
+      return size;
+   }
+
+   /**
+    * Returns the k heaviest terms that start with the given prefix, in
+    * descending order of weight. The empty prefix matches every term.
+    * This method throws a NullPointerException if prefix is null, and an
+    * IllegalArgumentException if k is negative.
+    */
+   public Term[] topMatches(String prefix, int k) {
+      if (prefix == null) {
+         throw new NullPointerException();
+      }
+
+      if (k < 0) {
+         throw new IllegalArgumentException();
+      }
+
+      PriorityQueue<Candidate> candidates = new PriorityQueue<Candidate>();
+      if (prefix.length() == 0) {
+         offer(candidates, root);
+      }
+
+      else {
+         Node node = get(root, prefix, 0);
+         if (node != null) {
+            offer(candidates, node.term);
+            offer(candidates, node.mid);
+         }
+      }
+
+      return collect(candidates, k);
+   }
+
+   /**
+    * Returns the k heaviest terms that start with some string within
+    * maxEdits insertions, deletions or substitutions of the given prefix,
+    * in descending order of weight. Exact completions are included. This
+    * method throws a NullPointerException if prefix is null, and an
+    * IllegalArgumentException if maxEdits is not between 0 and 2 or k is
+    * negative.
+    */
+   public Term[] fuzzyMatches(String prefix, int maxEdits, int k) {
+      if (prefix == null) {
+         throw new NullPointerException();
+      }
+
+      if (maxEdits < 0 || maxEdits > MAX_EDITS || k < 0) {
+         throw new IllegalArgumentException();
+      }
+
+      if (prefix.length() <= maxEdits || k == 0) {
+         return topMatches("", k);
+      }
+
+      PriorityQueue<Candidate> candidates = new PriorityQueue<Candidate>();
+      int[] first = new int[prefix.length() + 1];
+      for (int j = 0; j < first.length; j++) {
+         first[j] = j;
+      }
+      new FuzzyWalk(prefix, maxEdits, k, candidates).visit(root, first, 0);
+      return collect(candidates, k);
+   }
+
+   /**
+    * Walks the trie while simulating a Levenshtein automaton for the
+    * typed prefix: each node carries one row of the edit-distance table
+    * between the prefix and the path spelled so far. A subtree is dropped
+    * as soon as every entry of its row exceeds the edit budget, and is
+    * accepted whole as soon as the full prefix is within budget.
+    *
+    * Every accepted subtree holds a term as heavy as its cached maximum,
+    * so once k subtrees are accepted, the k-th largest of their maxima is
+    * a floor for the answer and any subtree lighter than it is skipped.
+    */
+   private static class FuzzyWalk {
+      private final String prefix;
+      private final int maxEdits;
+      private final int k;
+      private final PriorityQueue<Candidate> candidates;
+      private final PriorityQueue<Long> floor = new PriorityQueue<Long>();
+      private int[][] rows = new int[16][];
+
+      FuzzyWalk(String prefix, int maxEdits, int k, PriorityQueue<Candidate> candidates) {
+         this.prefix = prefix;
+         this.maxEdits = maxEdits;
+         this.k = k;
+         this.candidates = candidates;
+      }
+
+      /** Visits node and its left and right siblings, at the given depth. */
+      void visit(Node node, int[] parent, int depth) {
+         while (node != null) {
+            if (floor.size() == k && node.max < floor.peek()) {
+               return;
+            }
+
+            int[] row = row(depth);
+            int m = prefix.length();
+            row[0] = parent[0] + 1;
+            int min = row[0];
+            for (int j = 1; j <= m; j++) {
+               int cost = (prefix.charAt(j - 1) == node.c) ? 0 : 1;
+               row[j] = Math.min(Math.min(parent[j] + 1, row[j - 1] + 1), parent[j - 1] + cost);
+               min = Math.min(min, row[j]);
+            }
+
+            if (row[m] <= maxEdits) {
+               offer(candidates, node.term);
+               offer(candidates, node.mid);
+               raiseFloor(node.term == null ? -1 : node.term.weight);
+               raiseFloor(node.mid == null ? -1 : node.mid.max);
+            }
+
+            else if (min <= maxEdits) {
+               visit(node.mid, row, depth + 1);
+            }
+
+            visit(node.left, parent, depth);
+            node = node.right;
+         }
+      }
+
+      /** Records the maximum of an accepted candidate, keeping the k largest. */
+      private void raiseFloor(long max) {
+         if (max < 0) {
+            return;
+         }
+         if (floor.size() < k) {
+            floor.add(max);
+         }
+         else if (max > floor.peek()) {
+            floor.poll();
+            floor.add(max);
+         }
+      }
+
+      /** Returns the reusable row buffer for the given depth. */
+      private int[] row(int depth) {
+         if (depth >= rows.length) {
+            rows = Arrays.copyOf(rows, 2 * depth);
+         }
+         if (rows[depth] == null) {
+            rows[depth] = new int[prefix.length() + 1];
+         }
+         return rows[depth];
+      }
+   }
+
+   /**
+    * Pops candidates heaviest-first until k terms have been produced.
+    * A popped node is replaced by its own term and its three subtrees.
+    */
+   private static Term[] collect(PriorityQueue<Candidate> candidates, int k) {
+      List<Term> matches = new ArrayList<Term>(Math.min(k, 64));
+      while (matches.size() < k && !candidates.isEmpty()) {
+         Candidate c = candidates.poll();
+         if (c.node == null) {
+            matches.add(c.term);
+         }
+
+         else {
+            offer(candidates, c.node.term);
+            offer(candidates, c.node.left);
+            offer(candidates, c.node.mid);
+            offer(candidates, c.node.right);
+         }
+      }
+      return matches.toArray(new Term[0]);
+   }
+
+   private static void offer(PriorityQueue<Candidate> candidates, Node node) {
+      if (node != null) {
+         candidates.add(new Candidate(node, null, node.max));
+      }
+   }
+
+   private static void offer(PriorityQueue<Candidate> candidates, Term term) {
+      if (term != null) {
+         candidates.add(new Candidate(null, term, term.weight));
+      }
+   }
+
+   /**
+    * Inserts the median first so that the left and right links of the
+    * trie stay balanced even though the input is sorted.
+    */
+   private void putBalanced(Term[] sorted, int lo, int hi) {
+      if (lo > hi) {
+         return;
+      }
+      int mid = (lo + hi) >>> 1;
+      if (sorted[mid].query.length() > 0) {
+         root = put(root, sorted[mid], 0);
+      }
+      putBalanced(sorted, lo, mid - 1);
+      putBalanced(sorted, mid + 1, hi);
+   }
+
+   private Node get(Node node, String key, int d) {
+      while (node != null) {
+         char c = key.charAt(d);
+         if (c < node.c) {
+            node = node.left;
+         }
+
+         else if (c > node.c) {
+            node = node.right;
+         }
+
+         else if (d < key.length() - 1) {
+            node = node.mid;
+            d++;
+         }
+
+         else {
+            return node;
+         }
+      }
+      return null;
+   }
+
+   private Node put(Node node, Term term, int d) {
+      char c = term.query.charAt(d);
+      if (node == null) {
+         node = new Node(c);
+      }
+
+      if (c < node.c) {
+         node.left = put(node.left, term, d);
+      }
+
+      else if (c > node.c) {
+         node.right = put(node.right, term, d);
+      }
+
+      else if (d < term.query.length() - 1) {
+         node.mid = put(node.mid, term, d + 1);
+      }
+
+      else if (node.term == null) {
+         node.term = term;
+         size++;
+      }
+
+      else if (term.weight > node.term.weight) {
+         node.term = term;
+      }
+
+      node.max = max(node);
+      return node;
+   }
+
+   /** Recomputes the cached subtree maximum of the given node. */
+   private static long max(Node node) {
+      long max = -1;
+      if (node.term != null) {
+         max = node.term.weight;
+      }
+      if (node.left != null) {
+         max = Math.max(max, node.left.max);
+      }
+      if (node.mid != null) {
+         max = Math.max(max, node.mid.max);
+      }
+      if (node.right != null) {
+         max = Math.max(max, node.right.max);
+      }
+      return max;
+   }
+
+   /**
+    * Trie node. The term is non-null only if the path to this node
+    * spells out a complete query.
+    */
+   private static class Node {
+      char c;
+      Term term;
+      long max;
+      Node left;
+      Node mid;
+      Node right;
+
+      Node(char c) {
+         this.c = c;
+         this.max = -1;
+      }
+   }
+
+   /**
+    * Either a whole subtree (keyed by its cached maximum) or a single
+    * term waiting to be emitted. Heavier candidates come first.
+    */
+   private static class Candidate implements Comparable<Candidate> {
+      Node node;
+      Term term;
+      long weight;
+
+      Candidate(Node node, Term term, long weight) {
+         this.node = node;
+         this.term = term;
+         this.weight = weight;
+      }
+
+      @Override
+      public int compareTo(Candidate other) {
+         return Long.compare(other.weight, this.weight);
+      }
+   }
+
+}
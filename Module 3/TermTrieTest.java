@@ -0,0 +1,147 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for TermTrie: top-k and fuzzy completions agree with a scan of
+ * every term sorted by weight.
+ */
+public class TermTrieTest {
+
+   private static final String[] PREFIXES = {"", "a", "b", "ab", "ba", "abc", "cab", "dddd", "e"};
+
+   /** Returns the edit distance between a and b. */
+   private static int levenshtein(String a, String b) {
+      int[] row = new int[b.length() + 1];
+      for (int j = 0; j <= b.length(); j++) {
+         row[j] = j;
+      }
+      for (int i = 1; i <= a.length(); i++) {
+         int diagonal = row[0];
+         row[0] = i;
+         for (int j = 1; j <= b.length(); j++) {
+            int above = row[j];
+            int cost = (a.charAt(i - 1) == b.charAt(j - 1)) ? 0 : 1;
+            row[j] = Math.min(Math.min(above + 1, row[j - 1] + 1), diagonal + cost);
+            diagonal = above;
+         }
+      }
+      return row[b.length()];
+   }
+
+   /** Returns the k heaviest terms with a prefix within maxEdits of prefix, found by a scan. */
+   private static String fuzzyScan(Term[] terms, String prefix, int maxEdits, int k) {
+      List<Term> matches = new ArrayList<Term>();
+      for (Term term : terms) {
+         for (int end = 0; end <= term.query.length(); end++) {
+            if (levenshtein(term.query.substring(0, end), prefix) <= maxEdits) {
+               matches.add(term);
+               break;
+            }
+         }
+      }
+      Collections.sort(matches, Term.byDescendingWeightOrder());
+      return matches.subList(0, Math.min(k, matches.size())).toString();
+   }
+
+   @Test public void topMatchesAgreeWithScan() {
+      Random rng = new Random(2210);
+      Term[] terms = AutocompleteTest.randomTerms(rng, 1000);
+      TermTrie trie = new TermTrie(terms);
+      Assert.assertEquals(terms.length, trie.size());
+      for (String prefix : PREFIXES) {
+         for (int k : new int[] {0, 1, 5, 50, terms.length + 1}) {
+            Assert.assertEquals(prefix + " k=" + k, AutocompleteTest.scan(terms, prefix, k),
+               Arrays.toString(trie.topMatches(prefix, k)));
+         }
+      }
+   }
+
+   @Test public void emptyPrefixMatchesEveryTerm() {
+      Term[] terms = AutocompleteTest.randomTerms(new Random(2210), 100);
+      Assert.assertEquals(terms.length, new TermTrie(terms).topMatches("", 1000).length);
+   }
+
+   @Test public void keepsHeaviestDuplicate() {
+      Term[] terms = {new Term("ab", 3), new Term("ab", 9), new Term("ab", 5)};
+      TermTrie trie = new TermTrie(terms);
+      Assert.assertEquals(1, trie.size());
+      Assert.assertEquals("[ab\t9]", Arrays.toString(trie.topMatches("a", 10)));
+   }
+
+   @Test public void emptyTrieHasNoMatches() {
+      TermTrie trie = new TermTrie(new Term[0]);
+      Assert.assertEquals(0, trie.topMatches("", 5).length);
+      Assert.assertEquals(0, trie.topMatches("a", 5).length);
+   }
+
+   @Test public void fuzzyMatchesAgreeWithLevenshteinScan() {
+      Random rng = new Random(2210);
+      Term[] terms = AutocompleteTest.randomTerms(rng, 1000);
+      TermTrie trie = new TermTrie(terms);
+      String[] prefixes = {"a", "ab", "ba", "abc", "cab", "dddd", "abcda", "e", "ex", "bcdex"};
+      for (String prefix : prefixes) {
+         for (int maxEdits = 0; maxEdits <= 2; maxEdits++) {
+            for (int k : new int[] {0, 1, 5, 50, terms.length + 1}) {
+               Assert.assertEquals(prefix + " edits=" + maxEdits + " k=" + k,
+                  fuzzyScan(terms, prefix, maxEdits, k),
+                  Arrays.toString(trie.fuzzyMatches(prefix, maxEdits, k)));
+            }
+         }
+      }
+   }
+
+   @Test public void fuzzyMatchesWithNoEditsAreTopMatches() {
+      Term[] terms = AutocompleteTest.randomTerms(new Random(2210), 1000);
+      TermTrie trie = new TermTrie(terms);
+      for (String prefix : PREFIXES) {
+         Assert.assertEquals(prefix, Arrays.toString(trie.topMatches(prefix, 20)),
+            Arrays.toString(trie.fuzzyMatches(prefix, 0, 20)));
+      }
+   }
+
+   @Test public void shortPrefixFuzzyMatchesEveryTerm() {
+      Term[] terms = AutocompleteTest.randomTerms(new Random(2210), 100);
+      TermTrie trie = new TermTrie(terms);
+      Assert.assertEquals(Arrays.toString(trie.topMatches("", 10)),
+         Arrays.toString(trie.fuzzyMatches("xy", 2, 10)));
+   }
+
+   @Test public void fuzzyMatchesToleratesTypos() {
+      TermTrie trie = new TermTrie(new Term[] {new Term("receive", 5), new Term("recipe", 3),
+         new Term("deceive", 1), new Term("perceive", 2)});
+      Assert.assertEquals("[receive\t5, recipe\t3]",
+         Arrays.toString(trie.fuzzyMatches("recie", 1, 10)));
+      Assert.assertEquals("[deceive\t1]", Arrays.toString(trie.fuzzyMatches("deciev", 2, 10)));
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void fuzzyMatchesRejectsTooManyEdits() {
+      new TermTrie(new Term[0]).fuzzyMatches("abcd", 3, 1);
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void fuzzyMatchesRejectsNegativeEdits() {
+      new TermTrie(new Term[0]).fuzzyMatches("abcd", -1, 1);
+   }
+
+   @Test(expected = NullPointerException.class)
+   public void fuzzyMatchesRejectsNullPrefix() {
+      new TermTrie(new Term[0]).fuzzyMatches(null, 1, 1);
+   }
+
+   @Test(expected = NullPointerException.class)
+   public void topMatchesRejectsNullPrefix() {
+      new TermTrie(new Term[0]).topMatches(null, 1);
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void topMatchesRejectsNegativeK() {
+      new TermTrie(new Term[0]).topMatches("a", -1);
+   }
+}
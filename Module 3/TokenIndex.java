@@ -0,0 +1,153 @@
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PrimitiveIterator;
+
+/**
+ * Index of the words inside the queries of a TermStore, so that a prefix
+ * can match the start of any word and not only the start of the query.
+ *
+ * Every word that starts after the first character of a query, that is
+ * every non-whitespace character following whitespace, becomes a token
+ * pointing back to its term. Tokens are sorted by the text from their
+ * start to the end of the query, which makes the tokens matching a prefix
+ * one contiguous range, just like the terms in the store. A WeightIndex
+ * over the tokens' weights then yields that range heaviest first. Words
+ * at the start of a query are left to the store itself.
+ *
+ * In a normalized store the tokens are taken from, and compared with, the
+ * search keys rather than the queries.
+ *
+ */
+final class TokenIndex implements TermStore.Sorted {
+
+   private final CharBuffer text;
+   private final IntBuffer offsets;
+   private final int[] terms;
+   private final int[] starts;
+   private final WeightIndex weights;
+
+   private TokenIndex(CharBuffer text, IntBuffer offsets, int[] terms, int[] starts,
+         WeightIndex weights) {
+      this.text = text;
+      this.offsets = offsets;
+      this.terms = terms;
+      this.starts = starts;
+      this.weights = weights;
+   }
+
+   /** Builds the token index over the given store. */
+   static TokenIndex build(TermStore store) {
+      CharBuffer text = store.isNormalized() ? store.keyChars() : store.chars();
+      IntBuffer offsets = store.isNormalized() ? store.keyOffsets() : store.offsets();
+
+      int count = 0;
+      for (int i = 0; i < store.size(); i++) {
+         count += countWords(text, offsets.get(i), offsets.get(i + 1));
+      }
+
+      Integer[] order = new Integer[count];
+      int[] tokenTerms = new int[count];
+      int[] tokenStarts = new int[count];
+      int t = 0;
+      for (int i = 0; i < store.size(); i++) {
+         int end = offsets.get(i + 1);
+         for (int j = offsets.get(i) + 1; j < end; j++) {
+            if (startsWord(text, j)) {
+               order[t] = t;
+               tokenTerms[t] = i;
+               tokenStarts[t] = j;
+               t++;
+            }
+         }
+      }
+
+      Arrays.sort(order, bySuffix(text, offsets, tokenTerms, tokenStarts));
+
+      int[] terms = new int[count];
+      int[] starts = new int[count];
+      long[] weights = new long[count];
+      for (int i = 0; i < count; i++) {
+         terms[i] = tokenTerms[order[i]];
+         starts[i] = tokenStarts[order[i]];
+         weights[i] = store.weight(terms[i]);
+      }
+      return new TokenIndex(text, offsets, terms, starts, new WeightIndex(weights));
+   }
+
+   /** Returns the number of tokens. */
+   int size() {
+      return terms.length;
+   }
+
+   /** Returns the store position of the term that token i belongs to. */
+   int term(int i) {
+      return terms[i];
+   }
+
+   /**
+    * Returns the first and last tokens whose words start with the given
+    * prefix, or {-1, -1} if there are none. In a normalized store the
+    * prefix must already be normalized.
+    */
+   int[] equalRange(String prefix) {
+      return TermStore.prefixRange(this, prefix, 0, terms.length - 1, null);
+   }
+
+   /** Returns the tokens in [lo, hi] in descending order of weight. */
+   PrimitiveIterator.OfInt descending(int lo, int hi) {
+      return weights.descending(lo, hi);
+   }
+
+   /** Compares the prefix with the start of the text of token i. */
+   public int comparePrefix(String prefix, int i) {
+      int start = starts[i];
+      int length = Math.min(prefix.length(), offsets.get(terms[i] + 1) - start);
+      for (int j = 0; j < length; j++) {
+         char c1 = prefix.charAt(j);
+         char c2 = text.get(start + j);
+         if (c1 != c2) {
+            return c1 - c2;
+         }
+      }
+      return prefix.length() - length;
+   }
+
+   private static int countWords(CharBuffer text, int start, int end) {
+      int count = 0;
+      for (int j = start + 1; j < end; j++) {
+         if (startsWord(text, j)) {
+            count++;
+         }
+      }
+      return count;
+   }
+
+   private static boolean startsWord(CharBuffer text, int j) {
+      return Character.isWhitespace(text.get(j - 1)) && !Character.isWhitespace(text.get(j));
+   }
+
+   /** Orders tokens by their text up to the end of their query. */
+   private static Comparator<Integer> bySuffix(CharBuffer text, IntBuffer offsets,
+         int[] terms, int[] starts) {
+      return
+         new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+               int i = starts[a];
+               int j = starts[b];
+               int iEnd = offsets.get(terms[a] + 1);
+               int jEnd = offsets.get(terms[b] + 1);
+               while (i < iEnd && j < jEnd) {
+                  char c1 = text.get(i++);
+                  char c2 = text.get(j++);
+                  if (c1 != c2) {
+                     return c1 - c2;
+                  }
+               }
+               return (iEnd - i) - (jEnd - j);
+            }
+         };
+   }
+
+}
@@ -0,0 +1,226 @@
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.PriorityQueue;
+import java.util.stream.IntStream;
+
+/**
+ * Range-maximum segment tree over an array of weights. Given a range of
+ * positions, it yields the positions in that range in descending order
+ * of weight, one at a time, so the k heaviest entries of any range can be
+ * found in O(k log n) no matter how wide the range is.
+ *
+ */
+public class WeightIndex {
+
+   // levels narrower than this are not worth splitting across threads
+   private static final int PARALLEL_THRESHOLD = 1 << 13;
+
+   private final LongBuffer weights;
+   private final IntBuffer tree;
+   private final int n;
+
+   /**
+    * Builds the index over the given weights. The array is not copied.
+    * This method throws a NullPointerException if weights is null.
+    */
+   public WeightIndex(long[] weights) {
+      this(LongBuffer.wrap(weights));
+   }
+
+   /**
+    * Builds the index over the weights between position zero and the
+    * limit of the given buffer, which may be direct. The buffer is not
+    * copied. This method throws a NullPointerException if weights is null.
+    */
+   public WeightIndex(LongBuffer weights) {
+      this(weights, false);
+   }
+
+   /**
+    * Builds the index over the given weights, filling each level of the
+    * tree in parallel on the common fork-join pool if parallel is true.
+    * This method throws a NullPointerException if weights is null.
+    */
+   public WeightIndex(LongBuffer weights, boolean parallel) {
+      if (weights == null) {
+         throw new NullPointerException();
+      }
+
+      this.weights = weights;
+      this.n = weights.limit();
+      this.tree = IntBuffer.allocate(treeSize(n));
+      if (parallel) {
+         buildParallel();
+      }
+      else {
+         build();
+      }
+   }
+
+   /**
+    * Wraps a tree that was built earlier over the same weights, for
+    * example one read back from a snapshot file.
+    */
+   WeightIndex(LongBuffer weights, IntBuffer tree) {
+      this.weights = weights;
+      this.n = weights.limit();
+      this.tree = tree;
+   }
+
+   /**
+    * Fills the given tree buffer, which must have treeSize slots, with
+    * the index over the given weights. This lets the tree be built in
+    * place, for example directly inside a snapshot file.
+    */
+   static void build(LongBuffer weights, IntBuffer tree) {
+      new WeightIndex(weights, tree).build();
+   }
+
+   private void build() {
+      for (int i = 0; i < n; i++) {
+         tree.put(n + i, i);
+      }
+      for (int i = n - 1; i > 0; i--) {
+         tree.put(i, heavier(tree.get(2 * i), tree.get(2 * i + 1)));
+      }
+   }
+
+   /**
+    * Builds the tree one level at a time, bottom up. Slot i depends only
+    * on slots 2i and 2i + 1, so every slot in [2^j, 2^(j+1)) can be filled
+    * at once as soon as the slots above 2^(j+1) are done.
+    */
+   private void buildParallel() {
+      IntStream.range(0, n).parallel().forEach(i -> tree.put(n + i, i));
+      int top = Integer.highestOneBit(Math.max(n - 1, 1));
+      for (int level = top; level > 0; level >>= 1) {
+         int hi = Math.min(2 * level, n);
+         IntStream slots = IntStream.range(level, hi);
+         if (hi - level >= PARALLEL_THRESHOLD) {
+            slots = slots.parallel();
+         }
+         slots.forEach(i -> tree.put(i, heavier(tree.get(2 * i), tree.get(2 * i + 1))));
+      }
+   }
+
+   /** Returns the number of tree slots needed to index n weights. */
+   static int treeSize(int n) {
+      return 2 * Math.max(n, 1);
+   }
+
+   /** Returns the tree slots, for writing them to a snapshot. */
+   IntBuffer tree() {
+      return tree.duplicate();
+   }
+
+   /**
+    * Returns the position of the heaviest weight in [lo, hi]. Ties go to
+    * the lowest position.
+    */
+   public int argMax(int lo, int hi) {
+      int best = lo;
+      for (lo += n, hi += n + 1; lo < hi; lo >>= 1, hi >>= 1) {
+         if ((lo & 1) == 1) {
+            best = heavier(best, tree.get(lo++));
+         }
+         if ((hi & 1) == 1) {
+            best = heavier(best, tree.get(--hi));
+         }
+      }
+      return best;
+   }
+
+   /**
+    * Returns the positions in [lo, hi] in descending order of weight.
+    * Equal weights come out in ascending order of position. This method
+    * throws an IndexOutOfBoundsException if the range is not within the
+    * index; an empty range (lo greater than hi) yields nothing.
+    */
+   public PrimitiveIterator.OfInt descending(int lo, int hi) {
+      if (lo < 0 || hi >= n) {
+         throw new IndexOutOfBoundsException();
+      }
+      return new Descending(lo, hi);
+   }
+
+   /** Returns the k heaviest positions in [lo, hi], heaviest first. */
+   public int[] top(int lo, int hi, int k) {
+      if (k < 0) {
+         throw new IllegalArgumentException();
+      }
+
+      PrimitiveIterator.OfInt itr = descending(lo, hi);
+      int[] top = new int[Math.min(k, Math.max(hi - lo + 1, 0))];
+      for (int i = 0; i < top.length; i++) {
+         top[i] = itr.nextInt();
+      }
+      return top;
+   }
+
+   private int heavier(int i, int j) {
+      long wi = weights.get(i);
+      long wj = weights.get(j);
+      if (wj > wi || (wj == wi && j < i)) {
+         return j;
+      }
+      return i;
+   }
+
+   /**
+    * Best-first walk over disjoint subranges. Each subrange is keyed by its
+    * own maximum; emitting that maximum splits the subrange in two.
+    */
+   private class Descending implements PrimitiveIterator.OfInt {
+      private final PriorityQueue<Range> ranges = new PriorityQueue<Range>();
+
+      Descending(int lo, int hi) {
+         offer(lo, hi);
+      }
+
+      @Override
+      public boolean hasNext() {
+         return !ranges.isEmpty();
+      }
+
+      @Override
+      public int nextInt() {
+         Range r = ranges.poll();
+         if (r == null) {
+            throw new NoSuchElementException();
+         }
+         offer(r.lo, r.max - 1);
+         offer(r.max + 1, r.hi);
+         return r.max;
+      }
+
+      private void offer(int lo, int hi) {
+         if (lo <= hi) {
+            ranges.add(new Range(lo, hi, argMax(lo, hi)));
+         }
+      }
+   }
+
+   private class Range implements Comparable<Range> {
+      int lo;
+      int hi;
+      int max;
+
+      Range(int lo, int hi, int max) {
+         this.lo = lo;
+         this.hi = hi;
+         this.max = max;
+      }
+
+      @Override
+      public int compareTo(Range other) {
+         int cmp = Long.compare(weights.get(other.max), weights.get(this.max));
+         if (cmp == 0) {
+            cmp = Integer.compare(this.max, other.max);
+         }
+         return cmp;
+      }
+   }
+
+}
@@ -0,0 +1,74 @@
+import java.util.Arrays;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for WeightIndex: the heaviest positions of every range agree with
+ * sorting the range by descending weight, ties by ascending position.
+ */
+public class WeightIndexTest {
+
+   /** Returns the positions in [lo, hi] sorted by descending weight, then position. */
+   private static int[] sorted(long[] weights, int lo, int hi) {
+      Integer[] order = new Integer[Math.max(hi - lo + 1, 0)];
+      for (int i = 0; i < order.length; i++) {
+         order[i] = lo + i;
+      }
+      Arrays.sort(order, (a, b) -> (weights[a] != weights[b])
+         ? Long.compare(weights[b], weights[a]) : Integer.compare(a, b));
+      int[] positions = new int[order.length];
+      for (int i = 0; i < order.length; i++) {
+         positions[i] = order[i];
+      }
+      return positions;
+   }
+
+   @Test public void topAgreesWithSortedRange() {
+      Random rng = new Random(2210);
+      for (int n = 1; n <= 40; n++) {
+         long[] weights = new long[n];
+         for (int i = 0; i < n; i++) {
+            weights[i] = rng.nextInt(8);
+         }
+         WeightIndex index = new WeightIndex(weights);
+         for (int lo = 0; lo < n; lo++) {
+            for (int hi = lo; hi < n; hi++) {
+               int[] expected = sorted(weights, lo, hi);
+               Assert.assertEquals(expected[0], index.argMax(lo, hi));
+               for (int k : new int[] {0, 1, 3, hi - lo + 1, hi - lo + 10}) {
+                  Assert.assertArrayEquals(n + " [" + lo + ", " + hi + "] k=" + k,
+                     Arrays.copyOf(expected, Math.min(k, expected.length)), index.top(lo, hi, k));
+               }
+            }
+         }
+      }
+   }
+
+   @Test public void descendingYieldsWholeRange() {
+      long[] weights = {5, 1, 5, 9, 0, 9, 3};
+      PrimitiveIterator.OfInt itr = new WeightIndex(weights).descending(0, weights.length - 1);
+      for (int expected : new int[] {3, 5, 0, 2, 6, 1, 4}) {
+         Assert.assertEquals(expected, itr.nextInt());
+      }
+      Assert.assertFalse(itr.hasNext());
+   }
+
+   @Test public void emptyRangeYieldsNothing() {
+      WeightIndex index = new WeightIndex(new long[] {1, 2, 3});
+      Assert.assertFalse(index.descending(2, 1).hasNext());
+      Assert.assertEquals(0, index.top(2, 1, 5).length);
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void topRejectsNegativeK() {
+      new WeightIndex(new long[] {1, 2, 3}).top(0, 2, -1);
+   }
+
+   @Test(expected = IndexOutOfBoundsException.class)
+   public void rejectsRangeOutsideIndex() {
+      new WeightIndex(new long[] {1, 2, 3}).descending(0, 3);
+   }
+}
@@ -0,0 +1,30 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * LexiconCompiler.java
+ * Compiles a plain word list, one word per line as read by
+ * WordSearch.loadLexicon, into a binary lexicon file that loadLexicon
+ * maps instead of parsing.
+ * Run with: java LexiconCompiler [word list] [lexicon file]
+ */
+public class LexiconCompiler {
+
+   /** Drives execution. */
+   public static void main(String[] args) throws IOException {
+      if (args.length != 2) {
+         System.err.println("usage: java LexiconCompiler <word list> <lexicon file>");
+         System.exit(2);
+      }
+      Path input = Paths.get(args[0]);
+      Path output = Paths.get(args[1]);
+
+      long start = System.nanoTime();
+      LexiconTrie trie = LexiconTrie.fromWordList(input);
+      trie.save(output);
+      System.out.printf("%d words, %d nodes, written to %s in %.3f s%n", trie.size(),
+         trie.nodeCount(), output, (System.nanoTime() - start) / 1_000_000_000d);
+   }
+
+}
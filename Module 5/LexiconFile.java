@@ -0,0 +1,208 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary file format for a LexiconTrie. The file holds the trie's columns
+ * exactly as they are laid out in memory, so opening it is just a matter
+ * of mapping each section; nothing is parsed, sorted or rebuilt.
+ *
+ * Layout (little-endian, every section starts on an 8-byte boundary):
+ *
+ *    header     magic, version, word count, node count,
+ *               alphabet size (24 bytes)
+ *    alphabet   alphabet size chars, in symbol order
+ *    masks      LexiconTrie.strideOf(alphabet size) longs per node
+ *    children   one int per node
+ *
+ */
+final class LexiconFile {
+
+   // "LXTR" in ASCII
+   static final int MAGIC = 0x5254584C;
+   static final int VERSION = 1;
+   static final int HEADER_BYTES = 24;
+
+   private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+   private static final int CHUNK_BYTES = 1 << 16;
+
+   private LexiconFile() {
+   }
+
+   /**
+    * Writes the given trie to the given file. The trie is written to a
+    * temporary file in the same directory, which then atomically replaces
+    * the file, so a trie already mapped from the old file keeps reading
+    * the old contents and readers never see a partly written file.
+    */
+   static void write(Path file, LexiconTrie trie) throws IOException {
+      char[] alphabet = trie.alphabet();
+      LongBuffer masks = trie.masks();
+      IntBuffer children = trie.children();
+      int nodes = trie.nodeCount();
+      Layout layout = new Layout(nodes, alphabet.length);
+
+      Path directory = file.toAbsolutePath().getParent();
+      Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+      try {
+         try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            Writer out = new Writer(channel);
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(trie.size());
+            out.putInt(nodes);
+            out.putInt(alphabet.length);
+            out.padTo(layout.alphabet);
+            for (char c : alphabet) {
+               out.putChar(c);
+            }
+            out.padTo(layout.masks);
+            for (int i = 0; i < masks.limit(); i++) {
+               out.putLong(masks.get(i));
+            }
+            for (int i = 0; i < nodes; i++) {
+               out.putInt(children.get(i));
+            }
+            out.flush();
+         }
+         Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      }
+      finally {
+         Files.deleteIfExists(temp);
+      }
+   }
+
+   /** Returns true if the file starts with the header of a lexicon file. */
+   static boolean isLexiconFile(Path file) throws IOException {
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+         ByteBuffer start = readFully(channel, 8);
+         return start.remaining() == 8 && start.getInt() == MAGIC;
+      }
+   }
+
+   /**
+    * Maps the given lexicon file read-only and returns a trie over it.
+    * This method throws an IOException if the file is not a lexicon file
+    * or was written by an unsupported version.
+    */
+   static LexiconTrie open(Path file) throws IOException {
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+         ByteBuffer header = readFully(channel, HEADER_BYTES);
+         if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC) {
+            throw new IOException("not a lexicon file: " + file);
+         }
+         int version = header.getInt();
+         if (version != VERSION) {
+            throw new IOException("unsupported lexicon version " + version + ": " + file);
+         }
+         int words = header.getInt();
+         int nodes = header.getInt();
+         int symbols = header.getInt();
+         if (words < 0 || nodes < 1 || symbols < 0 || symbols > Character.MAX_VALUE + 1) {
+            throw new IOException("corrupt lexicon file: " + file);
+         }
+         Layout layout = new Layout(nodes, symbols);
+         if (channel.size() < layout.end) {
+            throw new IOException("truncated lexicon file: " + file);
+         }
+
+         char[] alphabet = new char[symbols];
+         map(channel, layout.alphabet, 2L * symbols).asCharBuffer().get(alphabet);
+         LongBuffer masks = map(channel, layout.masks, layout.children - layout.masks).asLongBuffer();
+         IntBuffer children = map(channel, layout.children, 4L * nodes).asIntBuffer();
+         return new LexiconTrie(alphabet, masks, children, words);
+      }
+   }
+
+   private static ByteBuffer readFully(FileChannel channel, int size) throws IOException {
+      ByteBuffer buffer = ByteBuffer.allocate(size).order(ORDER);
+      while (buffer.hasRemaining()) {
+         if (channel.read(buffer) < 0) {
+            break;
+         }
+      }
+      buffer.flip();
+      return buffer;
+   }
+
+   private static ByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+      return channel.map(FileChannel.MapMode.READ_ONLY, position, size).order(ORDER);
+   }
+
+   /** File positions of each section for a given number of nodes and symbols. */
+   static final class Layout {
+      final long alphabet;
+      final long masks;
+      final long children;
+      final long end;
+
+      Layout(int nodes, int symbols) {
+         alphabet = HEADER_BYTES;
+         masks = align(alphabet + 2L * symbols);
+         children = masks + 8L * nodes * LexiconTrie.strideOf(symbols);
+         end = children + 4L * nodes;
+      }
+
+      private static long align(long position) {
+         return (position + 7) & ~7L;
+      }
+   }
+
+   /** Buffered sequential writer from the start of a file. */
+   static final class Writer {
+      private final FileChannel channel;
+      private final ByteBuffer buffer = ByteBuffer.allocate(CHUNK_BYTES).order(ORDER);
+      private long position;
+
+      Writer(FileChannel channel) {
+         this.channel = channel;
+      }
+
+      void putLong(long value) throws IOException {
+         if (buffer.remaining() < 8) {
+            flush();
+         }
+         buffer.putLong(value);
+      }
+
+      void putInt(int value) throws IOException {
+         if (buffer.remaining() < 4) {
+            flush();
+         }
+         buffer.putInt(value);
+      }
+
+      void putChar(char value) throws IOException {
+         if (buffer.remaining() < 2) {
+            flush();
+         }
+         buffer.putChar(value);
+      }
+
+      /** Writes zeros up to the given file position. */
+      void padTo(long end) throws IOException {
+         while (position + buffer.position() < end) {
+            if (!buffer.hasRemaining()) {
+               flush();
+            }
+            buffer.put((byte) 0);
+         }
+      }
+
+      void flush() throws IOException {
+         buffer.flip();
+         while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+         }
+         buffer.clear();
+      }
+   }
+
+}
@@ -0,0 +1,331 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Compact, immutable trie over a set of words, for walking a lexicon one
+ * character at a time.
+ *
+ * Nodes are numbered breadth first and stored in two columns instead of
+ * as objects. Each node has a 64-bit mask whose low 63 bits say which
+ * symbols of the alphabet it has a child for, and whose top bit says
+ * whether the path to it spells a word. The children of a node are
+ * numbered consecutively, in symbol order, from its first child, so the
+ * child for a symbol is the first child plus the number of mask bits set
+ * below that symbol. Looking up a child is therefore a table lookup, a
+ * mask test and a bit count, whatever the size of the lexicon.
+ *
+ * The alphabet is made of the distinct characters in the words. When it
+ * has more than 63 characters, each node's mask spans as many longs as
+ * needed: the top bit of the first long still marks a word, and symbols
+ * from 63 on take the bits after it.
+ *
+ * Since a trie is just these columns, it can be saved to a file and
+ * opened again by memory-mapping the file, without reading or rebuilding
+ * anything; see LexiconFile for the format.
+ *
+ */
+public class LexiconTrie {
+
+   /** The node every walk starts from, spelling the empty string. */
+   public static final int ROOT = 0;
+
+   /** The node returned when a walk leaves the trie. */
+   public static final int NONE = -1;
+
+   // symbols a single long can describe; bit 63 marks a word
+   private static final int MAX_SYMBOLS = 63;
+   private static final long WORD = 1L << MAX_SYMBOLS;
+
+   private final char[] alphabet;
+   private final int[] symbols;
+   private final int stride;
+   private final LongBuffer masks;
+   private final IntBuffer children;
+   private final int words;
+
+   /**
+    * Builds a trie holding exactly the given words. Duplicates are
+    * ignored. This method throws a NullPointerException if words or any
+    * word is null.
+    */
+   public LexiconTrie(Collection<String> words) {
+      String[] sorted = words.toArray(new String[0]);
+      for (String word : sorted) {
+         if (word == null) {
+            throw new NullPointerException();
+         }
+      }
+      Arrays.sort(sorted);
+      int distinct = 0;
+      for (int i = 0; i < sorted.length; i++) {
+         if (i == 0 || !sorted[i].equals(sorted[i - 1])) {
+            sorted[distinct++] = sorted[i];
+         }
+      }
+      sorted = Arrays.copyOf(sorted, distinct);
+
+      this.alphabet = alphabetOf(sorted);
+      this.symbols = symbolTable(alphabet);
+      this.stride = strideOf(alphabet.length);
+      this.words = distinct;
+
+      // nodes still to be filled in, breadth first: the range of sorted
+      // words below each node, and the node's depth
+      int[] lo = new int[16];
+      int[] hi = new int[16];
+      int[] depth = new int[16];
+      long[] mask = new long[16 * stride];
+      int[] first = new int[16];
+      lo[0] = 0;
+      hi[0] = distinct;
+      int count = 1;
+      for (int node = 0; node < count; node++) {
+         int i = lo[node];
+         int d = depth[node];
+         if (i < hi[node] && sorted[i].length() == d) {
+            mask[node * stride] |= WORD;
+            i++;
+         }
+         first[node] = count;
+         while (i < hi[node]) {
+            char c = sorted[i].charAt(d);
+            int j = i + 1;
+            while (j < hi[node] && sorted[j].charAt(d) == c) {
+               j++;
+            }
+            if (count == lo.length) {
+               lo = Arrays.copyOf(lo, 2 * count);
+               hi = Arrays.copyOf(hi, 2 * count);
+               depth = Arrays.copyOf(depth, 2 * count);
+               mask = Arrays.copyOf(mask, 2 * count * stride);
+               first = Arrays.copyOf(first, 2 * count);
+            }
+            lo[count] = i;
+            hi[count] = j;
+            depth[count] = d + 1;
+            count++;
+            int bit = bitOf(symbols[c]);
+            mask[node * stride + (bit >>> 6)] |= 1L << bit;
+            i = j;
+         }
+      }
+      this.masks = LongBuffer.wrap(Arrays.copyOf(mask, count * stride));
+      this.children = IntBuffer.wrap(Arrays.copyOf(first, count));
+   }
+
+   /**
+    * Initializes a trie over columns that were already built, such as
+    * those mapped from a file. The masks hold strideOf(alphabet.length)
+    * longs per node.
+    */
+   LexiconTrie(char[] alphabet, LongBuffer masks, IntBuffer children, int words) {
+      this.alphabet = alphabet;
+      this.symbols = symbolTable(alphabet);
+      this.stride = strideOf(alphabet.length);
+      this.masks = masks;
+      this.children = children;
+      this.words = words;
+   }
+
+   /**
+    * Builds a trie from a plain word list: the first whitespace-separated
+    * token of every line that has one, in upper case. The file is read in
+    * the platform's default charset, as a FileReader reads it. This method
+    * throws an IOException if the file cannot be read.
+    */
+   public static LexiconTrie fromWordList(Path file) throws IOException {
+      List<String> words = new ArrayList<String>();
+      try (BufferedReader in = new BufferedReader(new FileReader(file.toFile()))) {
+         String line;
+         while ((line = in.readLine()) != null) {
+            int start = 0;
+            while (start < line.length() && Character.isWhitespace(line.charAt(start))) {
+               start++;
+            }
+            int end = start;
+            while (end < line.length() && !Character.isWhitespace(line.charAt(end))) {
+               end++;
+            }
+            if (end > start) {
+               words.add(line.substring(start, end).toUpperCase());
+            }
+         }
+      }
+      return new LexiconTrie(words);
+   }
+
+   /**
+    * Maps a trie previously written by save. The file is memory-mapped
+    * read-only, so opening is fast regardless of size and every trie
+    * opened from the same file shares its pages. This method throws an
+    * IOException if the file cannot be read or is not a lexicon file in
+    * a supported format.
+    */
+   public static LexiconTrie open(Path file) throws IOException {
+      if (file == null) {
+         throw new NullPointerException();
+      }
+      return LexiconFile.open(file);
+   }
+
+   /**
+    * Writes this trie to the given file so that it can be reopened with
+    * open. An existing file is replaced atomically; tries already opened
+    * from it keep the contents they were opened with. This method throws
+    * an IOException if the file cannot be written.
+    */
+   public void save(Path file) throws IOException {
+      if (file == null) {
+         throw new NullPointerException();
+      }
+      LexiconFile.write(file, this);
+   }
+
+   /** Returns the number of distinct words in this trie. */
+   public int size() {
+      return words;
+   }
+
+   /** Returns the number of nodes in this trie, the root included. */
+   public int nodeCount() {
+      return children.limit();
+   }
+
+   /**
+    * Returns the child of node for the character c, or NONE if no word
+    * continues that way. Walking from NONE stays at NONE.
+    */
+   public int child(int node, char c) {
+      if (node == NONE || c >= symbols.length || symbols[c] < 0) {
+         return NONE;
+      }
+      if (stride == 1) {
+         long mask = masks.get(node);
+         long bit = 1L << symbols[c];
+         if ((mask & bit) == 0) {
+            return NONE;
+         }
+         return children.get(node) + Long.bitCount(mask & (bit - 1));
+      }
+      return wideChild(node, bitOf(symbols[c]));
+   }
+
+   /**
+    * Returns the node reached from node by the characters of s in turn, or
+    * NONE if no word continues that way.
+    */
+   public int walk(int node, String s) {
+      for (int i = 0; i < s.length() && node != NONE; i++) {
+         node = child(node, s.charAt(i));
+      }
+      return node;
+   }
+
+   /** Returns true if the path to node spells a word. */
+   public boolean isWord(int node) {
+      return node != NONE && (masks.get(node * stride) & WORD) != 0;
+   }
+
+   /** Returns true if the given word is in this trie. */
+   public boolean contains(String word) {
+      return isWord(walk(ROOT, word));
+   }
+
+   /** Returns true if at least one word in this trie starts with prefix. */
+   public boolean hasPrefix(String prefix) {
+      return walk(ROOT, prefix) != NONE;
+   }
+
+   /** Returns the alphabet, in symbol order. */
+   char[] alphabet() {
+      return alphabet.clone();
+   }
+
+   /** Returns the node mask column, stride longs per node. */
+   LongBuffer masks() {
+      return masks.duplicate();
+   }
+
+   /** Returns the first child column. */
+   IntBuffer children() {
+      return children.duplicate();
+   }
+
+   /** Returns the distinct characters of the words, in ascending order. */
+   private static char[] alphabetOf(String[] words) {
+      boolean[] seen = new boolean[Character.MAX_VALUE + 1];
+      int count = 0;
+      for (String word : words) {
+         for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (!seen[c]) {
+               seen[c] = true;
+               count++;
+            }
+         }
+      }
+      char[] alphabet = new char[count];
+      int next = 0;
+      for (int c = 0; c < seen.length; c++) {
+         if (seen[c]) {
+            alphabet[next++] = (char) c;
+         }
+      }
+      return alphabet;
+   }
+
+   /** Maps every alphabet character to its symbol, and others to -1. */
+   private static int[] symbolTable(char[] alphabet) {
+      int size = (alphabet.length == 0) ? 0 : alphabet[alphabet.length - 1] + 1;
+      int[] symbols = new int[size];
+      Arrays.fill(symbols, -1);
+      for (int s = 0; s < alphabet.length; s++) {
+         symbols[alphabet[s]] = s;
+      }
+      return symbols;
+   }
+
+   /**
+    * Returns the number of longs in each node's mask for an alphabet of
+    * the given size: enough for every symbol and the word bit.
+    */
+   static int strideOf(int alphabetSize) {
+      return (alphabetSize + 1 + 63) >>> 6;
+   }
+
+   /** Returns the mask bit of a symbol, skipping the word bit. */
+   private static int bitOf(int symbol) {
+      return (symbol < MAX_SYMBOLS) ? symbol : symbol + 1;
+   }
+
+   /**
+    * Looks up a child in a mask of several longs, counting the set bits
+    * of every long before the one holding the symbol's bit.
+    */
+   private int wideChild(int node, int bit) {
+      int base = node * stride;
+      int word = bit >>> 6;
+      long mask = masks.get(base + word);
+      long flag = 1L << bit;
+      if ((mask & flag) == 0) {
+         return NONE;
+      }
+      int rank = Long.bitCount(mask & (flag - 1));
+      if (word > 0) {
+         rank += Long.bitCount(masks.get(base) & ~WORD);
+         for (int w = 1; w < word; w++) {
+            rank += Long.bitCount(masks.get(base + w));
+         }
+      }
+      return children.get(node) + rank;
+   }
+
+}
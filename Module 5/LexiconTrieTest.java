@@ -0,0 +1,174 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for LexiconTrie: lookups agree with a sorted set of the same
+ * words, for alphabets that fit a single mask and for larger ones, and
+ * a saved trie opens as the same trie.
+ */
+public class LexiconTrieTest {
+
+   private Path dir;
+
+   @Before public void setUp() throws IOException {
+      dir = Files.createTempDirectory("lexicon");
+   }
+
+   @After public void tearDown() throws IOException {
+      for (Path file : Files.newDirectoryStream(dir)) {
+         Files.delete(file);
+      }
+      Files.delete(dir);
+   }
+
+   private static List<String> randomWords(Random rng, String alphabet, int count) {
+      List<String> words = new ArrayList<String>();
+      for (int i = 0; i < count; i++) {
+         StringBuilder word = new StringBuilder();
+         int length = 1 + rng.nextInt(6);
+         for (int j = 0; j < length; j++) {
+            word.append(alphabet.charAt(rng.nextInt(alphabet.length())));
+         }
+         words.add(word.toString());
+      }
+      return words;
+   }
+
+   /** Checks every word and prefix of the words, and random strings, against the set. */
+   private static void assertSameAs(TreeSet<String> expected, LexiconTrie trie, Random rng,
+         String alphabet) {
+      Assert.assertEquals(expected.size(), trie.size());
+      List<String> probes = new ArrayList<String>(expected);
+      probes.addAll(randomWords(rng, alphabet, 2000));
+      for (String word : expected) {
+         for (int end = 0; end < word.length(); end++) {
+            probes.add(word.substring(0, end));
+         }
+      }
+      for (String probe : probes) {
+         String next = expected.ceiling(probe);
+         Assert.assertEquals(probe, expected.contains(probe), trie.contains(probe));
+         Assert.assertEquals(probe, next != null && next.startsWith(probe), trie.hasPrefix(probe));
+      }
+   }
+
+   private static String printableAscii() {
+      StringBuilder chars = new StringBuilder();
+      for (char c = '!'; c <= '~'; c++) {
+         chars.append(c);
+      }
+      return chars.toString();
+   }
+
+   @Test public void matchesSortedSetOfWords() {
+      Random rng = new Random(2210);
+      String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+      List<String> words = randomWords(rng, alphabet, 5000);
+      assertSameAs(new TreeSet<String>(words), new LexiconTrie(words), rng, alphabet);
+   }
+
+   @Test public void supportsEveryPrintableAsciiCharacter() {
+      Random rng = new Random(2210);
+      String alphabet = printableAscii();
+      List<String> words = randomWords(rng, alphabet, 5000);
+      words.add("A!");
+      words.add("~");
+      LexiconTrie trie = new LexiconTrie(words);
+      assertSameAs(new TreeSet<String>(words), trie, rng, alphabet);
+      Assert.assertTrue(trie.contains("A!"));
+      Assert.assertTrue(trie.contains("~"));
+   }
+
+   @Test public void supportsAlphabetsSpanningSeveralMasks() {
+      Random rng = new Random(2210);
+      StringBuilder chars = new StringBuilder();
+      for (char c = 0x100; c < 0x100 + 200; c++) {
+         chars.append(c);
+      }
+      String alphabet = chars.toString();
+      List<String> words = randomWords(rng, alphabet, 5000);
+      assertSameAs(new TreeSet<String>(words), new LexiconTrie(words), rng, alphabet);
+   }
+
+   @Test public void emptyLexiconHoldsOnlyTheEmptyPrefix() {
+      LexiconTrie trie = new LexiconTrie(new ArrayList<String>());
+      Assert.assertEquals(0, trie.size());
+      Assert.assertEquals(1, trie.nodeCount());
+      Assert.assertTrue(trie.hasPrefix(""));
+      Assert.assertFalse(trie.contains(""));
+      Assert.assertFalse(trie.hasPrefix("A"));
+   }
+
+   @Test public void ignoresDuplicates() {
+      LexiconTrie trie = new LexiconTrie(Arrays.asList("CAT", "CAT", "CATS"));
+      Assert.assertEquals(2, trie.size());
+      Assert.assertEquals(LexiconTrie.NONE, trie.walk(LexiconTrie.ROOT, "DOG"));
+      Assert.assertTrue(trie.isWord(trie.walk(LexiconTrie.ROOT, "CAT")));
+   }
+
+   @Test public void savedTrieOpensAsSameTrie() throws IOException {
+      Random rng = new Random(2210);
+      for (String alphabet : new String[] {"ABCDEFGHIJKLMNOPQRSTUVWXYZ", printableAscii()}) {
+         List<String> words = randomWords(rng, alphabet, 5000);
+         LexiconTrie trie = new LexiconTrie(words);
+         Path file = dir.resolve("words.lex");
+         trie.save(file);
+         LexiconTrie opened = LexiconTrie.open(file);
+         Assert.assertEquals(trie.nodeCount(), opened.nodeCount());
+         assertSameAs(new TreeSet<String>(words), opened, rng, alphabet);
+      }
+   }
+
+   @Test public void savingOverOpenFileLeavesOpenedTrieIntact() throws IOException {
+      Path file = dir.resolve("words.lex");
+      new LexiconTrie(Arrays.asList("CAT", "CATS", "DOG")).save(file);
+      LexiconTrie opened = LexiconTrie.open(file);
+      new LexiconTrie(Arrays.asList("EMU")).save(file);
+      Assert.assertTrue(opened.contains("CATS"));
+      Assert.assertEquals(3, opened.size());
+      Assert.assertTrue(LexiconTrie.open(file).contains("EMU"));
+      Assert.assertFalse(LexiconTrie.open(file).contains("CATS"));
+   }
+
+   @Test(expected = IOException.class)
+   public void rejectsPlainWordList() throws IOException {
+      Path file = dir.resolve("words.txt");
+      Files.write(file, Arrays.asList("CAT", "DOG", "EMU", "GNU", "YAK"));
+      LexiconTrie.open(file);
+   }
+
+   @Test(expected = IOException.class)
+   public void rejectsTruncatedFile() throws IOException {
+      Path file = dir.resolve("words.lex");
+      new LexiconTrie(Arrays.asList("CAT", "CATS", "DOG")).save(file);
+      byte[] bytes = Files.readAllBytes(file);
+      Files.write(file, Arrays.copyOf(bytes, bytes.length - 4));
+      LexiconTrie.open(file);
+   }
+
+   @Test(expected = IOException.class)
+   public void rejectsUnknownVersion() throws IOException {
+      Path file = dir.resolve("words.lex");
+      new LexiconTrie(Arrays.asList("CAT")).save(file);
+      byte[] bytes = Files.readAllBytes(file);
+      bytes[4] = 99;
+      Files.write(file, bytes);
+      LexiconTrie.open(file);
+   }
+
+   @Test(expected = NullPointerException.class)
+   public void rejectsNullWords() {
+      new LexiconTrie(Arrays.asList("CAT", null));
+   }
+}
@@ -1,16 +1,27 @@
-import java.io.File;
-import java.io.FileReader;
+import java.io.IOException;
 import java.lang.Math;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Scanner;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
   *Creates a word search game based on the code in the WordSearchGame file.
@@ -21,7 +32,11 @@ import java.util.TreeSet;
  
 public class WordSearch implements WordSearchGame {
 
-   private TreeSet<String> lexicon; //List of words
+   //Lexicons loaded by any game, by file, so that games share one trie
+   private static final Map<Path, SharedLexicon> LEXICONS =
+      new ConcurrentHashMap<Path, SharedLexicon>();
+   
+   private volatile LexiconTrie lexicon; //Trie of words
    private String[][] board; //Gameboard that holds the letters
    private static final int MAX_NEIGHBORS = 8;
    private int width;
@@ -29,8 +44,10 @@ public class WordSearch implements WordSearchGame {
    private boolean[][] visited; //Keeps track of visited positions
    private ArrayList<Integer> path; //Keeps track of path for isOnBoard
    private String wordSoFar; //Keeps track of word being built
-   private SortedSet<String> allWords;
    private ArrayList<Position> path2;
+   private volatile Grid grid; //Flat tables of the board for getAllScorableWords
+   private volatile boolean indexed; //Whether lookups use a BoardIndex
+   private volatile BoardIndex index; //Last BoardIndex built, possibly stale
    
    /**
      *Constructor used to initialize the default board for the game.
@@ -58,6 +75,7 @@ public class WordSearch implements WordSearchGame {
       board[3][3] = "Y";    
       width = board.length;
       height = board[0].length;
+      grid = new Grid(board);
       markAllUnvisited(); //Creates visited board and marks as unvisited
    }
        
@@ -70,28 +88,39 @@ public class WordSearch implements WordSearchGame {
     */
    public void loadLexicon(String fileName) {
    
-      lexicon = new TreeSet<String>();
-      
    //Checks if file is real, and reads it in.
       if (fileName == null) {
          throw new IllegalArgumentException();
       }
       try {
-         Scanner scan = new Scanner(new FileReader(new File(fileName)));
-         while (scan.hasNext()) {
-            String str = scan.next();
-            str = str.toUpperCase();
-            lexicon.add(str); //Adds it to the lexicon
-            scan.nextLine();
-         }
+         lexicon = sharedLexicon(Paths.get(fileName));
       }
       
-      //If can't find file, throw exception.
-      catch (java.io.FileNotFoundException e) {
-         throw new IllegalArgumentException();
+      //If can't open or read the file, throw exception.
+      catch (IOException | InvalidPathException e) {
+         throw new IllegalArgumentException(e);
       } 
    }
    
+   /**
+     *Returns the trie for a lexicon file, loading it only if no game in
+     *this JVM has loaded the file since it last changed. A file compiled
+     *by LexiconCompiler is memory-mapped; any other file is read as a
+     *plain word list.
+     */
+   private static LexiconTrie sharedLexicon(Path file) throws IOException {
+      Path key = file.toAbsolutePath().normalize();
+      BasicFileAttributes attributes = Files.readAttributes(key, BasicFileAttributes.class);
+      SharedLexicon shared = LEXICONS.get(key);
+      if (shared == null || !shared.matches(attributes)) {
+         LexiconTrie trie = LexiconFile.isLexiconFile(key)
+            ? LexiconTrie.open(key) : LexiconTrie.fromWordList(key);
+         shared = new SharedLexicon(attributes, trie);
+         LEXICONS.put(key, shared);
+      }
+      return shared.trie;
+   }
+   
    /**
      *Stores the incoming array of Strings in a data structure that will make
      *it convenient to find words.
@@ -130,6 +159,7 @@ public class WordSearch implements WordSearchGame {
             index++;
          }
       }
+      grid = new Grid(board);
       //Marks all spots on the board as unvisited
       markAllUnvisited();
    }
@@ -171,70 +201,330 @@ public class WordSearch implements WordSearchGame {
          throw new IllegalArgumentException();
       }
       
-      if (lexicon == null) {
+      LexiconTrie words = lexicon;
+      if (words == null) {
          throw new IllegalStateException();
       }
       
-      //Tracks current path
-      path2 = new ArrayList<Position>();
-      allWords = new TreeSet<String>();
-      wordSoFar = "";
-      
-      for (int i = 0; i < height; i++) {
-         for (int j = 0; j < width; j ++) {
-            wordSoFar = board[i][j];
-            
-            if (isValidWord(wordSoFar) && wordSoFar.length() >= minimumWordLength) {
-               allWords.add(wordSoFar);
-            }
-            
-            if (isValidPrefix(wordSoFar)) {
-               Position temp = new Position(i,j);
-               path2.add(temp);
-               //Starts DFS of Board
-               dfs2(i, j, minimumWordLength); 
-               //When it fails, remove the last part from temp
-               path2.remove(temp);
+      SortedSet<String> allWords = new TreeSet<String>();
+      if (indexed) {
+         for (String word : boardIndex(words).paths.keySet()) {
+            if (word.length() >= minimumWordLength) {
+               allWords.add(word);
             }
          }
+         return allWords;
+      }
+      
+      Grid current = grid;
+      Traversal traversal = new Traversal(current, words, minimumWordLength, allWords);
+      for (int cell = 0; cell < current.size(); cell++) {
+         traversal.search(cell, LexiconTrie.ROOT);
       }
       return allWords;
    }
    
-   private void dfs2(int x, int y, int min) {
-      Position start = new Position(x, y);
-      
-      //Marks everything as unvisited
-      markAllUnvisited();
+   /**
+     *Retrieves the same words as getAllScorableWords(minimumWordLength),
+     *but searches from the start cells in parallel on the given fork-join
+     *pool. The start cells are split into ranges, each searched by its own
+     *task with its own traversal state, and words are collected into a
+     *concurrent sorted set. The board and lexicon in use when the call
+     *starts are used throughout, so this method may run alongside other
+     *searches of the same game.
+     *
+     *@param minimumWordLength is the minimum allowed length (i.e., number of
+     *  characters) for any word found on the board.
+     *@param pool is the pool to run the search on.
+     *@return java.util.SortedSet which contains all the words of minimum length
+     *  found on the game board and in the lexicon.
+     *@throws IllegalArgumentException if minimumWordLength < 1 or pool is null.
+     *@throws IllegalStateException if loadLexicon has not been called.
+     */
+   public SortedSet<String> getAllScorableWords(int minimumWordLength, ForkJoinPool pool) {
+   
+      if (minimumWordLength < 1 || pool == null) {
+         throw new IllegalArgumentException();
+      }
       
-      //Marks path of current word visited
-      markPathVisited();
+      LexiconTrie words = lexicon;
+      if (words == null) {
+         throw new IllegalStateException();
+      }
       
-      for (Position p : start.neighbors()) {
-         if (!isVisited(p)) {
-            visit(p);
-            
-            if (isValidPrefix(wordSoFar + board[p.x][p.y])) {
-               wordSoFar += board[p.x][p.y];
-               path2.add(p);
-               
-               if (isValidWord(wordSoFar) && wordSoFar.length() >= min) {
-                  allWords.add(wordSoFar);
+      Grid current = grid;
+      SortedSet<String> allWords = new ConcurrentSkipListSet<String>();
+      //Several ranges per worker, so that stealing evens out uneven cells
+      int threshold = Math.max(1, current.size() / (16 * pool.getParallelism()));
+      pool.invoke(new SearchTask(current, words, minimumWordLength, allWords,
+         0, current.size(), threshold));
+      return allWords;
+   }
+   
+   /**
+     *Searches from every start cell in [lo, hi), splitting the range in
+     *half until it is no longer than the threshold.
+     */
+   private static class SearchTask extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+      private final Grid board;
+      private final LexiconTrie words;
+      private final int min;
+      private final Collection<String> found;
+      private final int lo;
+      private final int hi;
+      private final int threshold;
+   
+      SearchTask(Grid board, LexiconTrie words, int min, Collection<String> found,
+            int lo, int hi, int threshold) {
+         this.board = board;
+         this.words = words;
+         this.min = min;
+         this.found = found;
+         this.lo = lo;
+         this.hi = hi;
+         this.threshold = threshold;
+      }
+   
+      @Override
+      protected void compute() {
+         if (hi - lo <= threshold) {
+            //The same word is often found many times on a large board, so
+            //duplicates are dropped locally before touching the shared set
+            Set<String> local = new HashSet<String>();
+            Traversal traversal = new Traversal(board, words, min, local);
+            for (int cell = lo; cell < hi; cell++) {
+               traversal.search(cell, LexiconTrie.ROOT);
+            }
+            found.addAll(local);
+            return;
+         }
+         int middle = (lo + hi) >>> 1;
+         invokeAll(new SearchTask(board, words, min, found, lo, middle, threshold),
+            new SearchTask(board, words, min, found, middle, hi, threshold));
+      }
+   }
+   
+   /**
+     *A loaded lexicon and the size and modification time its file had
+     *when it was loaded, to tell when the file has changed since.
+     */
+   private static class SharedLexicon {
+      final long size;
+      final long modified;
+      final LexiconTrie trie;
+   
+      SharedLexicon(BasicFileAttributes attributes, LexiconTrie trie) {
+         this.size = attributes.size();
+         this.modified = attributes.lastModifiedTime().toMillis();
+         this.trie = trie;
+      }
+   
+      /** Returns true if the file still has the size and time it had. */
+      boolean matches(BasicFileAttributes attributes) {
+         return attributes.size() == size && attributes.lastModifiedTime().toMillis() == modified;
+      }
+   }
+   
+   /**
+     *Flat, row-major tables of one board: the letters of each cell as
+     *given and in upper case, as in the lexicon, and the cells next to
+     *each cell. The neighbors of cell i are
+     *neighbors[neighborStart[i] .. neighborStart[i + 1]).
+     */
+   private static class Grid {
+      final String[] cells;
+      final String[] upperCells;
+      final int[] neighborStart;
+      final int[] neighbors;
+   
+      Grid(String[][] board) {
+         int rows = board.length;
+         int columns = (rows == 0) ? 0 : board[0].length;
+         cells = new String[rows * columns];
+         upperCells = new String[cells.length];
+         neighborStart = new int[cells.length + 1];
+         int[] table = new int[cells.length * MAX_NEIGHBORS];
+         int count = 0;
+         for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < columns; j++) {
+               int cell = i * columns + j;
+               cells[cell] = board[i][j];
+               upperCells[cell] = board[i][j].toUpperCase();
+               neighborStart[cell] = count;
+               for (int x = Math.max(0, i - 1); x <= Math.min(rows - 1, i + 1); x++) {
+                  for (int y = Math.max(0, j - 1); y <= Math.min(columns - 1, j + 1); y++) {
+                     if (x != i || y != j) {
+                        table[count++] = x * columns + y;
+                     }
+                  }
                }
-               dfs2(p.x, p.y, min);
-               
-               //Remove the last part added to wordSoFar
-               path2.remove(p);
-               int endIndex = wordSoFar.length() - board[p.x][p.y].length();
-               wordSoFar = wordSoFar.substring(0, endIndex);
             }
          }
+         neighborStart[cells.length] = count;
+         neighbors = Arrays.copyOf(table, count);
+      }
+   
+      /** Returns the number of cells. */
+      int size() {
+         return cells.length;
+      }
+   }
+   
+   /**
+     *The state of one traversal of a board: the cells on the current path,
+     *as bits and in order, and the word they spell. Words found go into a
+     *collection or, with their paths, into a map. A traversal is used by
+     *one thread.
+     */
+   private static class Traversal {
+      final Grid board;
+      final LexiconTrie words;
+      final long[] visited;
+      final int[] path;
+      int depth;
+      final StringBuilder word = new StringBuilder();
+      final int min;
+      final Collection<String> found;
+      final Map<String, int[]> paths;
+   
+      Traversal(Grid board, LexiconTrie words, int min, Collection<String> found) {
+         this(board, words, min, found, null);
+      }
+   
+      Traversal(Grid board, LexiconTrie words, int min, Map<String, int[]> paths) {
+         this(board, words, min, null, paths);
+      }
+   
+      private Traversal(Grid board, LexiconTrie words, int min, Collection<String> found,
+            Map<String, int[]> paths) {
+         this.board = board;
+         this.words = words;
+         this.visited = new long[(board.size() + 63) >>> 6];
+         this.path = new int[board.size()];
+         this.min = min;
+         this.found = found;
+         this.paths = paths;
+      }
+   
+      /**
+       *Depth-First Search for getAllScorableWords. The trie node spelling
+       *the word so far moves along with the search, so extending the word
+       *by a cell is a single child lookup per letter, and a prefix that no
+       *word starts with is cut off at once. Nothing is allocated per step:
+       *the neighbors come from the flat table, the path lives in the
+       *visited bits, and the word in one buffer that grows and shrinks
+       *with it.
+       *@param cell is the cell to extend the word with.
+       *@param node is the trie node spelling the word before cell.
+       */
+      void search(int cell, int node) {
+         node = words.walk(node, board.upperCells[cell]);
+         if (node == LexiconTrie.NONE) {
+            return;
+         }
+         
+         int length = word.length();
+         word.append(board.cells[cell]);
+         visit(cell);
+         path[depth++] = cell;
+         if (words.isWord(node) && word.length() >= min) {
+            if (paths == null) {
+               found.add(word.toString());
+            }
+            else {
+               //The first path found is the one isOnBoard's search finds
+               paths.putIfAbsent(word.toString(), Arrays.copyOf(path, depth));
+            }
+         }
+         
+         for (int e = board.neighborStart[cell]; e < board.neighborStart[cell + 1]; e++) {
+            int next = board.neighbors[e];
+            if (!isVisited(next)) {
+               search(next, node);
+            }
+         }
+         
+         depth--;
+         unvisit(cell);
+         word.setLength(length);
+      }
+   
+      boolean isVisited(int cell) {
+         return (visited[cell >>> 6] & (1L << cell)) != 0;
+      }
+   
+      void visit(int cell) {
+         visited[cell >>> 6] |= 1L << cell;
+      }
+   
+      void unvisit(int cell) {
+         visited[cell >>> 6] &= ~(1L << cell);
+      }
+   }
+   
+   /**
+     *Turns the board index on or off. While it is on, the first lookup
+     *after the board or the lexicon changes finds every lexicon word on
+     *the board, with a path for each, in one search; from then on until
+     *the next change, isOnBoard, getScoreForWords and getAllScorableWords
+     *answer from that index instead of searching the board again. This
+     *pays off when the same board is queried repeatedly. It is off by
+     *default.
+     *
+     *@param indexed is true to use the board index.
+     */
+   public void setIndexed(boolean indexed) {
+      this.indexed = indexed;
+      if (!indexed) {
+         index = null;
+      }
+   }
+   
+   /**
+     *Returns the board index for the current board and lexicon, building
+     *it if the last one was built for a different board or lexicon.
+     */
+   private BoardIndex boardIndex(LexiconTrie words) {
+      Grid current = grid;
+      BoardIndex built = index;
+      if (built == null || built.board != current || built.words != words) {
+         built = new BoardIndex(current, words);
+         index = built;
+      }
+      return built;
+   }
+   
+   /**
+     *Every lexicon word on one board, as spelled by the board's letters,
+     *mapped to the first path isOnBoard would find for it. It remembers
+     *the board and lexicon it was built from, so a stale index is noticed.
+     */
+   private static class BoardIndex {
+      final Grid board;
+      final LexiconTrie words;
+      final Map<String, int[]> paths = new HashMap<String, int[]>();
+   
+      BoardIndex(Grid board, LexiconTrie words) {
+         this.board = board;
+         this.words = words;
+         Traversal traversal = new Traversal(board, words, 1, paths);
+         for (int cell = 0; cell < board.size(); cell++) {
+            traversal.search(cell, LexiconTrie.ROOT);
+         }
+      }
+   
+      /** Returns the path of the word as a new list, or an empty list. */
+      List<Integer> pathOf(String word) {
+         List<Integer> path = new ArrayList<Integer>();
+         int[] cells = paths.get(word);
+         if (cells != null) {
+            for (int cell : cells) {
+               path.add(cell);
+            }
+         }
+         return path;
       }
-      //Marks everything as unvisited
-      markAllUnvisited();
-      
-      //Marks the path of the current word visited
-      markPathVisited();
    }
    
   /**
@@ -255,17 +545,20 @@ public class WordSearch implements WordSearchGame {
          throw new IllegalArgumentException();
       }
       
-      if (lexicon == null) {
+      LexiconTrie lexiconWords = lexicon;
+      if (lexiconWords == null) {
          throw new IllegalStateException();
       }
       
+      BoardIndex onBoard = indexed ? boardIndex(lexiconWords) : null;
       int score = 0;
       Iterator<String> itr = words.iterator();
       while (itr.hasNext()) {
          String word = itr.next();
          //if word is the minimum required length, is in the lexicon, and is on the board
          if (word.length() >= minimumWordLength && isValidWord(word)
-             && !isOnBoard(word).isEmpty()) {
+             && (onBoard != null ? onBoard.paths.containsKey(word.toUpperCase())
+                 : !isOnBoard(word).isEmpty())) {
             //Adds one score for meeting the required length and one for each extra character.
             score += (word.length() - minimumWordLength) + 1;
          }
@@ -314,13 +607,8 @@ public class WordSearch implements WordSearchGame {
       }
       
       prefixToCheck = prefixToCheck.toUpperCase();
-      //Checks if it's in the lexicon
-      String word = lexicon.ceiling(prefixToCheck);
-      
-      if (word != null) {
-         return word.startsWith(prefixToCheck);
-      }
-      return false;
+      //Checks if some word in the lexicon starts with it
+      return lexicon.hasPrefix(prefixToCheck);
    }
       
    /**
@@ -341,10 +629,16 @@ public class WordSearch implements WordSearchGame {
          throw new IllegalArgumentException();
       }
       
-      if (lexicon == null) {
+      LexiconTrie words = lexicon;
+      if (words == null) {
          throw new IllegalStateException();
       }
       
+      //The index holds every lexicon word on the board
+      if (indexed && words.contains(wordToCheck.toUpperCase())) {
+         return boardIndex(words).pathOf(wordToCheck.toUpperCase());
+      }
+      
       path2 = new ArrayList<Position>();
       wordToCheck = wordToCheck.toUpperCase();
       wordSoFar = "";
@@ -0,0 +1,230 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * WordSearchBenchmark.java
+ * Measures the time and heap allocated per getAllScorableWords call on
+ * random square boards from 4x4 to 50x50, comparing the flat, allocation-
+ * free traversal in WordSearch against the traversal it replaced, which
+ * rebuilt the visited matrix on every step and allocated neighbor
+ * positions and word strings as it went. The parallel mode instead times
+ * the parallel solver on 100x100 and larger boards on 1, 2, 4, ... cores.
+ * Run with: java WordSearchBenchmark [lexicon file] [sequential|parallel]
+ */
+public class WordSearchBenchmark {
+
+   // board sizes measured, as the length of a side
+   private static final int[] SIDES = {4, 8, 16, 32, 50};
+
+   // board sizes measured by the parallel mode
+   private static final int[] LARGE_SIDES = {100, 200};
+
+   // minimum word length passed to getAllScorableWords
+   private static final int MIN_LENGTH = 3;
+
+   // unmeasured solves made first so the JIT settles down, and measured ones
+   private static final int WARMUP_RUNS = 5;
+   private static final int NUM_RUNS = 10;
+
+   // letters drawn for random boards, roughly in English proportions
+   private static final String LETTERS =
+      "EEEEEEEEEEEETTTTTTTTTAAAAAAAAOOOOOOOIIIIIIINNNNNNNSSSSSSHHHHHHRRRRRR"
+      + "DDDDLLLLCCCUUUMMMWWFFGGYYPPBVKJXQZ";
+
+   /** Drives execution. */
+   public static void main(String[] args) throws IOException {
+      String fileName = (args.length > 0) ? args[0] : "words.txt";
+      WordSearch game = new WordSearch();
+      game.loadLexicon(fileName);
+      if (args.length > 1 && args[1].equals("parallel")) {
+         parallel(game);
+         return;
+      }
+      LexiconTrie lexicon = LexiconTrie.fromWordList(Paths.get(fileName));
+
+      System.out.printf("%-8s%8s%14s%14s%14s%14s%10s%n", "board", "words",
+         "before ms", "after ms", "before KB", "after KB", "speedup");
+      Random rng = new Random(2210);
+      for (int side : SIDES) {
+         String[] letters = randomBoard(side, rng);
+         game.setBoard(letters);
+         PathCopySolver before = new PathCopySolver(lexicon, letters);
+
+         int words = game.getAllScorableWords(MIN_LENGTH).size();
+         if (words != before.solve(MIN_LENGTH).size()) {
+            throw new IllegalStateException("solvers disagree on a " + side + "x" + side + " board");
+         }
+         double[] old = measure(() -> before.solve(MIN_LENGTH).size());
+         double[] now = measure(() -> game.getAllScorableWords(MIN_LENGTH).size());
+         System.out.printf("%-8s%8d%14.3f%14.3f%14.1f%14.1f%9.1fx%n", side + "x" + side, words,
+            old[0], now[0], old[1] / 1024, now[1] / 1024, old[0] / now[0]);
+      }
+   }
+
+   /**
+    * Reports the average time per solve of large boards, sequentially
+    * and in parallel on fork-join pools of 1, 2, 4, ... cores.
+    */
+   private static void parallel(WordSearch game) {
+      int cores = Runtime.getRuntime().availableProcessors();
+      Random rng = new Random(2210);
+      System.out.printf("%-10s%-12s%14s%10s%n", "board", "cores", "ms/solve", "speedup");
+      for (int side : LARGE_SIDES) {
+         game.setBoard(randomBoard(side, rng));
+         String board = side + "x" + side;
+         double sequential = measure(() -> game.getAllScorableWords(MIN_LENGTH).size())[0];
+         System.out.printf("%-10s%-12s%14.3f%10s%n", board, "sequential", sequential, "");
+         for (int p = 1; p <= cores; p = (p == cores || 2 * p <= cores) ? 2 * p : cores) {
+            ForkJoinPool pool = new ForkJoinPool(p);
+            double ms = measure(() -> game.getAllScorableWords(MIN_LENGTH, pool).size())[0];
+            pool.shutdown();
+            System.out.printf("%-10s%-12d%14.3f%9.1fx%n", board, p, ms, sequential / ms);
+         }
+      }
+   }
+
+   /** One timed solve, returning a value to consume. */
+   private interface Solve {
+      int run();
+   }
+
+   /** Returns the average milliseconds and bytes allocated per solve. */
+   private static double[] measure(Solve solve) {
+      int sink = 0;
+      for (int i = 0; i < WARMUP_RUNS; i++) {
+         sink += solve.run();
+      }
+      long bytes = allocatedBytes();
+      long start = System.nanoTime();
+      for (int i = 0; i < NUM_RUNS; i++) {
+         sink += solve.run();
+      }
+      long elapsed = System.nanoTime() - start;
+      bytes = allocatedBytes() - bytes;
+      consume(sink);
+      return new double[] {elapsed / 1_000_000d / NUM_RUNS, (double) bytes / NUM_RUNS};
+   }
+
+   /** Returns side * side random letters in row-major order. */
+   static String[] randomBoard(int side, Random rng) {
+      String[] letters = new String[side * side];
+      for (int i = 0; i < letters.length; i++) {
+         letters[i] = String.valueOf(LETTERS.charAt(rng.nextInt(LETTERS.length())));
+      }
+      return letters;
+   }
+
+   /** Returns the bytes allocated so far by the current thread. */
+   private static long allocatedBytes() {
+      return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+         .getThreadAllocatedBytes(Thread.currentThread().getId());
+   }
+
+   /** Keeps the JIT from discarding a benchmark loop as dead code. */
+   private static void consume(int sink) {
+      if (sink == 42) {
+         System.out.print("");
+      }
+   }
+
+   /**
+    * The getAllScorableWords traversal as it was before it was made
+    * allocation-free: every step rebuilds the visited matrix from the
+    * path, allocates the neighbor positions, and concatenates and cuts
+    * the word as a String.
+    */
+   private static class PathCopySolver {
+      private final LexiconTrie lexicon;
+      private final String[][] board;
+      private final String[][] upperBoard;
+      private final int side;
+      private boolean[][] visited;
+      private List<int[]> path;
+      private String wordSoFar;
+      private SortedSet<String> allWords;
+
+      PathCopySolver(LexiconTrie lexicon, String[] letters) {
+         this.lexicon = lexicon;
+         this.side = (int) Math.sqrt(letters.length);
+         this.board = new String[side][side];
+         this.upperBoard = new String[side][side];
+         for (int i = 0; i < letters.length; i++) {
+            board[i / side][i % side] = letters[i];
+            upperBoard[i / side][i % side] = letters[i].toUpperCase();
+         }
+      }
+
+      SortedSet<String> solve(int min) {
+         path = new ArrayList<int[]>();
+         allWords = new TreeSet<String>();
+         for (int i = 0; i < side; i++) {
+            for (int j = 0; j < side; j++) {
+               wordSoFar = board[i][j];
+               int node = lexicon.walk(LexiconTrie.ROOT, upperBoard[i][j]);
+               if (lexicon.isWord(node) && wordSoFar.length() >= min) {
+                  allWords.add(wordSoFar);
+               }
+               if (node != LexiconTrie.NONE) {
+                  int[] start = {i, j};
+                  path.add(start);
+                  dfs(i, j, node, min);
+                  path.remove(start);
+               }
+            }
+         }
+         return allWords;
+      }
+
+      private void dfs(int x, int y, int node, int min) {
+         markPathVisited();
+         for (int[] p : neighbors(x, y)) {
+            if (!visited[p[0]][p[1]]) {
+               visited[p[0]][p[1]] = true;
+               int next = lexicon.walk(node, upperBoard[p[0]][p[1]]);
+               if (next != LexiconTrie.NONE) {
+                  wordSoFar += board[p[0]][p[1]];
+                  path.add(p);
+                  if (lexicon.isWord(next) && wordSoFar.length() >= min) {
+                     allWords.add(wordSoFar);
+                  }
+                  dfs(p[0], p[1], next, min);
+                  path.remove(p);
+                  wordSoFar = wordSoFar.substring(0, wordSoFar.length() - board[p[0]][p[1]].length());
+               }
+            }
+         }
+         markPathVisited();
+      }
+
+      private void markPathVisited() {
+         visited = new boolean[side][side];
+         for (int[] p : path) {
+            visited[p[0]][p[1]] = true;
+         }
+      }
+
+      private int[][] neighbors(int x, int y) {
+         int[][] nbrs = new int[8][];
+         int count = 0;
+         for (int i = -1; i <= 1; i++) {
+            for (int j = -1; j <= 1; j++) {
+               int nx = x + i;
+               int ny = y + j;
+               if (!(i == 0 && j == 0) && nx >= 0 && nx < side && ny >= 0 && ny < side) {
+                  nbrs[count++] = new int[] {nx, ny};
+               }
+            }
+         }
+         return Arrays.copyOf(nbrs, count);
+      }
+   }
+
+}
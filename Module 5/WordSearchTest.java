@@ -0,0 +1,302 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for WordSearch: loading lexicons, and finding words on fixed
+ * random boards, some of whose cells hold "QU", sequentially, in
+ * parallel and through the board index, compared with a brute-force
+ * search for each lexicon word.
+ */
+public class WordSearchTest {
+
+   // letters of the random boards and lexicons
+   private static final String[] CELLS = {"A", "B", "C", "D", "E", "S", "T", "QU"};
+
+   private Path dir;
+
+   @Before public void setUp() throws IOException {
+      dir = Files.createTempDirectory("wordsearch");
+   }
+
+   @After public void tearDown() throws IOException {
+      for (Path file : Files.newDirectoryStream(dir)) {
+         Files.delete(file);
+      }
+      Files.delete(dir);
+   }
+
+   private String lexicon(String name, List<String> lines) throws IOException {
+      Path file = dir.resolve(name);
+      Files.write(file, lines);
+      return file.toString();
+   }
+
+   private static String[] randomBoard(Random rng, int side) {
+      String[] board = new String[side * side];
+      for (int i = 0; i < board.length; i++) {
+         board[i] = CELLS[rng.nextInt(CELLS.length)];
+      }
+      return board;
+   }
+
+   private static List<String> randomWords(Random rng, int count) {
+      List<String> words = new ArrayList<String>();
+      for (int i = 0; i < count; i++) {
+         StringBuilder word = new StringBuilder();
+         int length = 1 + rng.nextInt(5);
+         for (int j = 0; j < length; j++) {
+            word.append(CELLS[rng.nextInt(CELLS.length)]);
+         }
+         words.add(word.toString());
+      }
+      return words;
+   }
+
+   /** Returns the words that some path of distinct adjacent cells spells. */
+   private static SortedSet<String> bruteForce(String[] board, List<String> words, int min) {
+      SortedSet<String> found = new TreeSet<String>();
+      int side = (int) Math.sqrt(board.length);
+      for (String word : words) {
+         for (int cell = 0; cell < board.length && word.length() >= min; cell++) {
+            if (spells(board, side, word, 0, cell, new boolean[board.length])) {
+               found.add(word);
+               break;
+            }
+         }
+      }
+      return found;
+   }
+
+   private static boolean spells(String[] board, int side, String word, int at, int cell,
+         boolean[] used) {
+      if (!word.startsWith(board[cell], at)) {
+         return false;
+      }
+      at += board[cell].length();
+      if (at == word.length()) {
+         return true;
+      }
+      used[cell] = true;
+      for (int x = cell / side - 1; x <= cell / side + 1; x++) {
+         for (int y = cell % side - 1; y <= cell % side + 1; y++) {
+            int next = x * side + y;
+            if (x >= 0 && x < side && y >= 0 && y < side && !used[next]
+                  && spells(board, side, word, at, next, used)) {
+               used[cell] = false;
+               return true;
+            }
+         }
+      }
+      used[cell] = false;
+      return false;
+   }
+
+   /** Asserts that path is a path of distinct adjacent cells spelling word. */
+   private static void assertSpells(String[] board, String word, List<Integer> path) {
+      int side = (int) Math.sqrt(board.length);
+      StringBuilder spelled = new StringBuilder();
+      for (int i = 0; i < path.size(); i++) {
+         int cell = path.get(i);
+         Assert.assertEquals(word, i, path.indexOf(cell));
+         if (i > 0) {
+            int last = path.get(i - 1);
+            Assert.assertTrue(word, Math.abs(cell / side - last / side) <= 1
+               && Math.abs(cell % side - last % side) <= 1);
+         }
+         spelled.append(board[cell]);
+      }
+      Assert.assertEquals(word, spelled.toString());
+   }
+
+   @Test public void findsSameWordsAsBruteForce() throws IOException {
+      Random rng = new Random(2210);
+      List<String> words = randomWords(rng, 3000);
+      WordSearch game = new WordSearch();
+      game.loadLexicon(lexicon("words.txt", words));
+      for (int side = 1; side <= 8; side++) {
+         String[] board = randomBoard(rng, side);
+         game.setBoard(board);
+         for (int min = 1; min <= 4; min++) {
+            Assert.assertEquals(Arrays.toString(board) + " min=" + min,
+               bruteForce(board, words, min), game.getAllScorableWords(min));
+         }
+      }
+   }
+
+   @Test public void findsPathsOfWordsOnBoard() throws IOException {
+      Random rng = new Random(2210);
+      List<String> words = randomWords(rng, 3000);
+      WordSearch game = new WordSearch();
+      game.loadLexicon(lexicon("words.txt", words));
+      String[] board = randomBoard(rng, 6);
+      game.setBoard(board);
+      SortedSet<String> onBoard = bruteForce(board, words, 1);
+      for (String word : words) {
+         List<Integer> path = game.isOnBoard(word);
+         Assert.assertEquals(word, onBoard.contains(word), !path.isEmpty());
+         if (!path.isEmpty()) {
+            assertSpells(board, word, path);
+         }
+      }
+   }
+
+   @Test public void parallelSearchFindsSameWords() throws IOException {
+      Random rng = new Random(2210);
+      List<String> words = randomWords(rng, 3000);
+      WordSearch game = new WordSearch();
+      game.loadLexicon(lexicon("words.txt", words));
+      ForkJoinPool pool = new ForkJoinPool(4);
+      try {
+         for (int side : new int[] {1, 2, 5, 8, 20}) {
+            String[] board = randomBoard(rng, side);
+            game.setBoard(board);
+            for (int min = 1; min <= 3; min++) {
+               SortedSet<String> expected = (side <= 8)
+                  ? bruteForce(board, words, min) : game.getAllScorableWords(min);
+               Assert.assertEquals(side + "x" + side + " min=" + min,
+                  expected, game.getAllScorableWords(min, pool));
+               Assert.assertEquals(side + "x" + side + " min=" + min,
+                  expected, game.getAllScorableWords(min, ForkJoinPool.commonPool()));
+            }
+         }
+      }
+      finally {
+         pool.shutdown();
+      }
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void parallelSearchRejectsNullPool() throws IOException {
+      WordSearch game = new WordSearch();
+      game.loadLexicon(lexicon("words.txt", Arrays.asList("CAT")));
+      game.getAllScorableWords(3, null);
+   }
+
+   @Test public void indexAnswersAsSearchDoes() throws IOException {
+      Random rng = new Random(2210);
+      List<String> words = randomWords(rng, 3000);
+      String file = lexicon("words.txt", words);
+      WordSearch searched = new WordSearch();
+      searched.loadLexicon(file);
+      WordSearch indexed = new WordSearch();
+      indexed.loadLexicon(file);
+      indexed.setIndexed(true);
+      for (int side = 1; side <= 7; side += 2) {
+         String[] board = randomBoard(rng, side);
+         searched.setBoard(board);
+         indexed.setBoard(board);
+         for (int min = 1; min <= 3; min++) {
+            Assert.assertEquals(bruteForce(board, words, min), indexed.getAllScorableWords(min));
+            SortedSet<String> guesses = new TreeSet<String>(words.subList(0, 500));
+            Assert.assertEquals(searched.getScoreForWords(guesses, min),
+               indexed.getScoreForWords(guesses, min));
+         }
+         for (String word : words.subList(0, 500)) {
+            Assert.assertEquals(word, searched.isOnBoard(word), indexed.isOnBoard(word));
+         }
+         Assert.assertTrue(indexed.isOnBoard("NOTAWORD").isEmpty());
+      }
+   }
+
+   @Test public void indexFollowsBoardAndLexicon() throws IOException {
+      WordSearch game = new WordSearch();
+      game.setIndexed(true);
+      game.loadLexicon(lexicon("words.txt", Arrays.asList("CAB", "BAD", "QUEST")));
+      game.setBoard(new String[] {"C", "A", "B", "D"});
+      Assert.assertEquals(new TreeSet<String>(Arrays.asList("BAD", "CAB")), game.getAllScorableWords(3));
+
+      game.setBoard(new String[] {"QU", "E", "T", "S"});
+      Assert.assertEquals(new TreeSet<String>(Arrays.asList("QUEST")), game.getAllScorableWords(3));
+      Assert.assertEquals(Arrays.asList(0, 1, 3, 2), game.isOnBoard("quest"));
+      Assert.assertTrue(game.isOnBoard("CAB").isEmpty());
+
+      game.loadLexicon(lexicon("other.txt", Arrays.asList("SET", "TEQU")));
+      Assert.assertEquals(new TreeSet<String>(Arrays.asList("SET", "TEQU")), game.getAllScorableWords(3));
+      Assert.assertEquals(Arrays.asList(2, 1, 0), game.isOnBoard("TEQU"));
+
+      game.setIndexed(false);
+      Assert.assertEquals(Arrays.asList(3, 1, 2), game.isOnBoard("SET"));
+   }
+
+   @Test public void loadsFirstTokenOfEveryLineInUpperCase() throws IOException {
+      WordSearch game = new WordSearch();
+      game.loadLexicon(lexicon("words.txt", Arrays.asList("cat 12", "  dog", "", "Bird\tx")));
+      Assert.assertTrue(game.isValidWord("CAT"));
+      Assert.assertTrue(game.isValidWord("dog"));
+      Assert.assertTrue(game.isValidWord("bird"));
+      Assert.assertFalse(game.isValidWord("12"));
+      Assert.assertTrue(game.isValidPrefix("BI"));
+      Assert.assertFalse(game.isValidPrefix("X"));
+   }
+
+   @Test public void loadsLexiconOfEveryPrintableAsciiCharacter() throws IOException {
+      List<String> lines = new ArrayList<String>();
+      for (char c = '!'; c <= '~'; c++) {
+         lines.add("A" + c);
+      }
+      WordSearch game = new WordSearch();
+      game.loadLexicon(lexicon("ascii.txt", lines));
+      Assert.assertTrue(game.isValidWord("A!"));
+      Assert.assertTrue(game.isValidWord("A~"));
+      Assert.assertTrue(game.isValidPrefix("A"));
+      Assert.assertFalse(game.isValidWord("A"));
+   }
+
+   @Test public void loadsCompiledLexicon() throws IOException {
+      Random rng = new Random(2210);
+      List<String> words = randomWords(rng, 3000);
+      String text = lexicon("words.txt", words);
+      String compiled = dir.resolve("words.lex").toString();
+      LexiconCompiler.main(new String[] {text, compiled});
+      WordSearch fromText = new WordSearch();
+      fromText.loadLexicon(text);
+      WordSearch fromCompiled = new WordSearch();
+      fromCompiled.loadLexicon(compiled);
+      String[] board = randomBoard(rng, 6);
+      fromText.setBoard(board);
+      fromCompiled.setBoard(board);
+      Assert.assertEquals(fromText.getAllScorableWords(1), fromCompiled.getAllScorableWords(1));
+   }
+
+   @Test public void recompilingLeavesLoadedGamesIntact() throws IOException {
+      String compiled = dir.resolve("words.lex").toString();
+      LexiconCompiler.main(new String[] {lexicon("big.txt", Arrays.asList("CAT", "DOG")), compiled});
+      WordSearch before = new WordSearch();
+      before.loadLexicon(compiled);
+      LexiconCompiler.main(new String[] {lexicon("small.txt", Arrays.asList("EMU")), compiled});
+      Assert.assertTrue(before.isValidWord("CAT"));
+      Assert.assertFalse(before.isValidWord("EMU"));
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void rejectsCorruptCompiledLexicon() throws IOException {
+      Path file = dir.resolve("words.lex");
+      LexiconCompiler.main(new String[] {lexicon("words.txt", Arrays.asList("CAT")), file.toString()});
+      byte[] bytes = Files.readAllBytes(file);
+      Files.write(file, Arrays.copyOf(bytes, 12));
+      new WordSearch().loadLexicon(file.toString());
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void rejectsNullFileName() {
+      new WordSearch().loadLexicon(null);
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void rejectsMissingFile() {
+      new WordSearch().loadLexicon(dir.resolve("missing.txt").toString());
+   }
+}